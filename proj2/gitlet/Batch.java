@@ -0,0 +1,108 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/**
+ * Runs a script of gitlet commands in one process, so that they share the JVM and the caches
+ * of commits, branches, and the stage instead of starting over for every command.
+ * A script holds one command per line, written as on the command line without the program
+ * name; arguments containing spaces are enclosed in double quotes, within which \" and \\
+ * stand for a quote and a backslash, and a quote left open runs to the end of the line.
+ * Blank lines and lines starting with # are skipped.
+ * Each command prints what it would print on its own, and its time is reported on
+ * standard error once it ends.
+ */
+public class Batch {
+    /**
+     * Handle the `batch [script]` command, or `batch -` to read the script from standard input.
+     */
+    public static void run(String[] args) {
+        Main.validateArgc(args, 2);
+        BufferedReader script;
+        if (args[1].equals("-")) {
+            script = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        } else {
+            File scriptFile = Repository.createFile(args[1]);
+            if (!scriptFile.isFile()) {
+                exitWithError("Script file does not exist.");
+            }
+            try {
+                script = Files.newBufferedReader(scriptFile.toPath(), StandardCharsets.UTF_8);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        Session.keepCache(true);
+        try (script) {
+            String line;
+            while ((line = script.readLine()) != null) {
+                String[] command = split(line);
+                if (command.length == 0 || command[0].startsWith("#")) {
+                    continue;
+                }
+                long start = System.nanoTime();
+                if (command[0].equals("batch") || command[0].equals("daemon")) {
+                    message("Cannot run that command in a batch.");
+                } else {
+                    Main.run(command);
+                }
+                System.out.flush();
+                System.err.printf("[%.1f ms] %s%n", (System.nanoTime() - start) / 1e6, line.trim());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            Session.keepCache(false);
+        }
+    }
+
+    /**
+     * @return the arguments on one LINE of a script.
+     */
+    static String[] split(String line) {
+        List<String> args = new ArrayList<>();
+        StringBuilder arg = null;
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    quoted = false;
+                } else if (c == '\\' && i + 1 < line.length()
+                        && (line.charAt(i + 1) == '"' || line.charAt(i + 1) == '\\')) {
+                    arg.append(line.charAt(++i));
+                } else {
+                    arg.append(c);
+                }
+            } else if (Character.isWhitespace(c)) {
+                if (arg != null) {
+                    args.add(arg.toString());
+                    arg = null;
+                }
+            } else {
+                if (arg == null) {
+                    arg = new StringBuilder();
+                }
+                if (c == '"') {
+                    quoted = true;
+                } else {
+                    arg.append(c);
+                }
+            }
+        }
+        if (arg != null) {
+            args.add(arg.toString());
+        }
+        return args.toArray(new String[0]);
+    }
+}
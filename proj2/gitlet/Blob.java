@@ -1,7 +1,19 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import static gitlet.Repository.*;
 import static gitlet.Utils.*;
@@ -13,6 +25,18 @@ public class Blob implements Serializable {
     /** The blobs folder under the .gitlet directory. */
     public static final File OBJECT_DIR = join(GITLET_DIR, "objects");
 
+
+    /** Total size of the raw contents kept by the reconstruction cache. */
+    private static final long CACHE_BUDGET = 64L << 20;
+    /**
+     * Recently rebuilt delta blobs and their bases, so that reading several versions of one
+     * file does not rebuild the shared part of their delta chain again. Least recently used
+     * entries are dropped first.
+     */
+    private static final Map<String, byte[]> RECONSTRUCTED = new LinkedHashMap<>(16, 0.75f, true);
+    /** Total size of the contents in RECONSTRUCTED. */
+    private static long cachedBytes = 0;
+
     /** The content of a blob is represented by a stream of bytes. */
     private final byte[] content;
     /** Each blob has a unique hash value. */
@@ -23,7 +47,15 @@ public class Blob implements Serializable {
      * @param text the File to be saved.
      */
     public Blob(File text) {
-        this.content = readContents(text);
+        this(readContents(text));
+    }
+
+    /**
+     * A Blob holding the given file content.
+     * @param content the bytes of a file.
+     */
+    public Blob(byte[] content) {
+        this.content = content;
         this.blobHash = generateBlobID();
     }
 
@@ -44,19 +76,183 @@ public class Blob implements Serializable {
     }
 
     /**
-     * Write blob into a new file under directory `.gitlet/object` with its SHA-1 as file name.
+     * Write blob into a new file under directory `.gitlet/objects`, in the subdirectory
+     * named by the first two digits of its SHA-1.
+     * The content is compressed as configured by `core.compression`.
      */
     public void saveBlob() {
-        File blobFile = join(OBJECT_DIR, blobHash);
-        writeContents(blobFile, (Object) this.content);
+        saveBlob(null);
+    }
+
+    /**
+     * Write blob into a new file under directory `.gitlet/objects`, in the subdirectory
+     * named by the first two digits of its SHA-1,
+     * as a delta against the previous version of the same file if that saves enough space.
+     * A delta is only made while the chain of deltas behind it stays within `delta.depth`.
+     * Blobs are never rewritten once saved, so deltas cannot form a cycle, and a blob is moved
+     * into place whole, so another process never reads part of one.
+     * @param baseID the SHA-1 of the previous version, or null if there is none.
+     */
+    public void saveBlob(String baseID) {
+        if (reuseBlob(blobHash)) {
+            return;
+        }
+        byte[] stored = null;
+        int maxDepth = Config.getInt(Config.DELTA_DEPTH);
+        if (baseID != null && maxDepth > 0 && checkBlobExists(baseID)) {
+            int depth = BlobFormat.deltaDepth(readStoredBlob(baseID)) + 1;
+            if (depth <= maxDepth) {
+                byte[] instructions = Delta.compute(readBase(baseID), this.content);
+                if (instructions.length < this.content.length / 2) {
+                    stored = BlobFormat.encodeDelta(baseID, depth, instructions,
+                                                    this.content.length);
+                }
+            }
+        }
+        if (stored == null) {
+            stored = BlobFormat.encode(this.content);
+        }
+        File blobFile = shardFile(OBJECT_DIR, blobHash);
+        blobFile.getParentFile().mkdir();
+        writeAtomically(blobFile, stored, GITLET_DIR);
+    }
+
+    /**
+     * Save the content of FILE as a blob without reading it into memory: the file is read
+     * once, feeding the digest and the stored form in a temporary file at the same time,
+     * which is then renamed to the file named by the digest.
+     * @return the SHA-1 hash value of the saved blob.
+     */
+    public static String saveFile(File file) {
+        MessageDigest md = ObjectHash.digest();
+        try {
+            File temp = File.createTempFile("blob", ".tmp", GITLET_DIR);
+            long length = file.length();
+            long copied;
+            try (InputStream in = new DigestInputStream(Files.newInputStream(file.toPath()), md);
+                 OutputStream out = BlobFormat.encodingStream(new BufferedOutputStream(
+                         Files.newOutputStream(temp.toPath())), length)) {
+                copied = in.transferTo(out);
+            }
+            if (copied != length) {
+                temp.delete();
+                throw new IllegalArgumentException(file + " changed while it was saved");
+            }
+            String blobID = bytesToHex(md.digest());
+            if (reuseBlob(blobID)) {
+                temp.delete();
+                return blobID;
+            }
+            File blobFile = shardFile(OBJECT_DIR, blobID);
+            blobFile.getParentFile().mkdir();
+            Files.move(temp.toPath(), blobFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            return blobID;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * @return the size in bytes above which files are saved and checked out by streaming,
+     * in fixed-size chunks, instead of being read into memory whole. They are never stored
+     * as deltas, so the configured size bounds the files that can be.
+     */
+    public static long streamThreshold() {
+        return (long) Config.getInt(Config.STREAM_THRESHOLD) << 20;
+    }
+
+    /**
+     * Write the content of a saved blob to TARGET. Loose blobs that are not deltas are
+     * streamed from the object store, so that files of any size can be checked out.
+     * @param blobID the file name (SHA-1) of the blob.
+     */
+    public static void writeBlobTo(String blobID, File target) {
+        File loose = shardFile(OBJECT_DIR, blobID);
+        if (!Pack.contains(blobID) && loose.isFile() && BlobFormat.copyContent(loose, target)) {
+            return;
+        }
+        writeContents(target, (Object) readBlob(blobID));
     }
 
     /**
      * Read saved snapshot file as a stream of bytes.
+     * Packed blobs are looked up first, then the loose file.
+     * Compressed blobs are inflated transparently.
      * @param blobID the file name (SHA-1) of the blob.
      */
     public static byte[] readBlob(String blobID) {
-        return readContents(join(OBJECT_DIR, blobID));
+        byte[] cached = cacheGet(blobID);
+        if (cached != null) {
+            return cached;
+        }
+        byte[] stored = readStoredBlob(blobID);
+        byte[] content = BlobFormat.decode(stored, Blob::readBase);
+        if (BlobFormat.deltaDepth(stored) > 0) {
+            cachePut(blobID, content);
+        }
+        return content;
+    }
+
+    /**
+     * Read the base of a delta, keeping it in the reconstruction cache.
+     */
+    private static byte[] readBase(String blobID) {
+        byte[] content = readBlob(blobID);
+        cachePut(blobID, content);
+        return content;
+    }
+
+    /**
+     * @return the blob as it is stored, before decoding, packed or loose.
+     */
+    private static byte[] readStoredBlob(String blobID) {
+        byte[] packed = Pack.read(blobID);
+        return (packed != null) ? packed : readContents(shardFile(OBJECT_DIR, blobID));
+    }
+
+    /**
+     * @return the ID of the blob the given blob is stored as a delta against, or null if it is
+     * stored whole or does not exist.
+     */
+    public static String deltaBase(String blobID) {
+        byte[] packed = Pack.read(blobID);
+        if (packed != null) {
+            return BlobFormat.deltaBase(packed);
+        }
+        File loose = shardFile(OBJECT_DIR, blobID);
+        return loose.isFile() ? BlobFormat.deltaBase(loose) : null;
+    }
+
+    /**
+     * @return the cached content of the blob, or null if it is not cached.
+     */
+    private static synchronized byte[] cacheGet(String blobID) {
+        return RECONSTRUCTED.get(blobID);
+    }
+
+    /**
+     * Cache the content of a blob, evicting the least recently used entries over budget.
+     * Contents larger than a quarter of the budget are not cached.
+     */
+    private static synchronized void cachePut(String blobID, byte[] content) {
+        if (content.length > CACHE_BUDGET / 4 || RECONSTRUCTED.containsKey(blobID)) {
+            return;
+        }
+        RECONSTRUCTED.put(blobID, content);
+        cachedBytes += content.length;
+        Iterator<byte[]> oldest = RECONSTRUCTED.values().iterator();
+        while (cachedBytes > CACHE_BUDGET) {
+            cachedBytes -= oldest.next().length;
+            oldest.remove();
+        }
+    }
+
+    /**
+     * Forget the rebuilt blobs, as needed once they may have been deleted by `gc`.
+     */
+    public static synchronized void clearCache() {
+        RECONSTRUCTED.clear();
+        cachedBytes = 0;
     }
 
     /**
@@ -64,20 +260,50 @@ public class Blob implements Serializable {
      * @param blobID the file name (SHA-1) of the blob.
      */
     public static String readBlobAsString(String blobID) {
-        return readContentsAsString(join(OBJECT_DIR, blobID));
+        return new String(readBlob(blobID), StandardCharsets.UTF_8);
     }
 
     /**
      * @return true if the given blob already exists, false otherwise.
      */
     public static boolean checkBlobExists(String blobID) {
-        return join(OBJECT_DIR, blobID).exists();
+        return Pack.contains(blobID) || shardFile(OBJECT_DIR, blobID).exists();
+    }
+
+    /**
+     * @return true if the given blob already exists, marking it as used now, so that a `gc`
+     * running meanwhile does not delete it before the stage refers to it.
+     */
+    private static boolean reuseBlob(String blobID) {
+        File loose = shardFile(OBJECT_DIR, blobID);
+        if (loose.isFile()) {
+            loose.setLastModified(System.currentTimeMillis());
+            return true;
+        }
+        return Pack.freshen(blobID);
+    }
+
+    /**
+     * Read the blob with its ID in the remote machine, packed or loose.
+     */
+    public static byte[] readRemoteBlob(String path, String blobID) {
+        byte[] packed = Pack.read(new File(path), blobID);
+        byte[] stored = (packed != null) ? packed : readContents(remoteBlobFile(path, blobID));
+        return BlobFormat.decode(stored, baseID -> readRemoteBlob(path, baseID));
+    }
+
+    /**
+     * @return true if the blob with its ID exists in the remote machine.
+     */
+    public static boolean checkRemoteBlobExists(String path, String blobID) {
+        return Pack.contains(new File(path), blobID) || remoteBlobFile(path, blobID).exists();
     }
 
     /**
-     * Find the blob object with its ID in the remote machine.
+     * @return the loose file of the blob in the remote machine, which may still use
+     * the flat layout of earlier versions.
      */
-    public static File findRemoteBlob(String path, String blobID) {
-        return join(path, "objects", blobID);
+    public static File remoteBlobFile(String path, String blobID) {
+        return RepositoryFormat.looseFile(join(path, "objects"), blobID);
     }
 }
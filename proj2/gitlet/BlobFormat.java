@@ -0,0 +1,379 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Function;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+import static gitlet.Repository.GITLET_DIR;
+import static gitlet.Utils.*;
+
+/**
+ * The stored form of a blob. Every blob written now starts with a header made of
+ * the magic bytes, a codec byte, and the length of the raw content, followed by the
+ * payload in that codec. Blobs written before the header existed are the raw content
+ * itself; any stored bytes that do not carry a well-formed header are read that way.
+ * A well-formed DEFLATE header whose payload does not inflate to the recorded length is
+ * corruption, not a legacy blob, and is reported as such.
+ *
+ * A DELTA payload is the ID of the base blob, the length of the delta chain ending at this
+ * blob, the length of the delta instructions, and the instructions, deflated if configured.
+ */
+public class BlobFormat {
+    /** Payload is the raw content. */
+    public static final byte STORE = 0;
+    /** Payload is the raw content compressed with deflate. */
+    public static final byte DEFLATE = 1;
+    /** Payload is a delta against another blob. */
+    public static final byte DELTA = 2;
+
+    /** Marks a blob with a header; a NUL first byte makes it unlikely to begin a text file. */
+    private static final byte[] MAGIC = {0, 'G', 'L', 'B'};
+    /** Length of the header: magic, codec, and raw length. */
+    private static final int HEADER_LENGTH = MAGIC.length + 1 + Long.BYTES;
+    /** Reported when a well-formed header is followed by a payload that does not decode. */
+    private static final String CORRUPT = "Corrupt blob object.";
+    /** Size of the buffers used when streaming a blob to or from storage. */
+    private static final int STREAM_BUFFER = 64 << 10;
+
+    /**
+     * Encode the raw content of a blob for storage, compressed at the configured level.
+     * Content that deflate cannot shrink is stored as is.
+     */
+    public static byte[] encode(byte[] content) {
+        int level = Config.getInt(Config.COMPRESSION);
+        if (level != 0 && content.length > 0) {
+            byte[] compressed = deflate(content, level);
+            if (compressed.length < content.length) {
+                return withHeader(DEFLATE, content.length, compressed);
+            }
+        }
+        return withHeader(STORE, content.length, content);
+    }
+
+    /**
+     * Start writing a blob for storage to OUT without holding its content in memory.
+     * The header is written at once, and the content written to the returned stream is
+     * compressed at the configured level on the way. Unlike {@link #encode}, content that
+     * deflate cannot shrink is still stored deflated, since that is only known at the end.
+     * Closing the returned stream closes OUT.
+     * @param rawLength the length of the content that will be written.
+     */
+    public static OutputStream encodingStream(OutputStream out, long rawLength)
+            throws IOException {
+        int level = Config.getInt(Config.COMPRESSION);
+        byte codec = (level != 0 && rawLength > 0) ? DEFLATE : STORE;
+        out.write(withHeader(codec, rawLength, new byte[0]));
+        if (codec == STORE) {
+            return out;
+        }
+        Deflater deflater = new Deflater(level);
+        return new DeflaterOutputStream(out, deflater, STREAM_BUFFER) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * Write the raw content of the stored blob in the file STORED to TARGET, a chunk at
+     * a time, so that blobs of any size can be checked out in bounded memory.
+     * Stored content is copied by the file system without passing through the heap.
+     * A deflated blob is inflated into a temporary file first, so that a corrupt one leaves
+     * TARGET untouched.
+     * @return false, leaving TARGET untouched, if the blob is a delta, which can only be
+     * rebuilt in memory by {@link #decode}.
+     */
+    public static boolean copyContent(File stored, File target) {
+        try (FileChannel in = FileChannel.open(stored.toPath(), StandardOpenOption.READ)) {
+            long size = in.size();
+            ByteBuffer header = ByteBuffer.allocate((int) Math.min(size, HEADER_LENGTH));
+            int n = 0;
+            while (header.hasRemaining() && n >= 0) {
+                n = in.read(header);
+            }
+            if (!hasHeader(header.array())) {
+                transfer(in, 0, size, target);  // a legacy raw blob
+                return true;
+            }
+            byte codec = header.get(MAGIC.length);
+            long rawLength = header.getLong(MAGIC.length + 1);
+            if (codec == DELTA) {
+                return false;
+            } else if (codec == STORE && rawLength == size - HEADER_LENGTH) {
+                transfer(in, HEADER_LENGTH, rawLength, target);
+                return true;
+            } else if (codec == DEFLATE) {
+                File temp = File.createTempFile("inflate", ".tmp", GITLET_DIR);
+                if (!inflateTo(stored, rawLength, temp)) {
+                    temp.delete();
+                    exitWithError(CORRUPT);
+                }
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                return true;
+            }
+            transfer(in, 0, size, target);  // not our header after all, as in decode
+            return true;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * @return true if the blob stored in FILE is a delta, which can only be read together with
+     * its base blob.
+     */
+    public static boolean isDelta(File stored) {
+        return deltaBase(stored) != null;
+    }
+
+    /**
+     * @return the ID of the base of the delta stored in FILE, or null if it is not a delta.
+     * Only the start of the file is read.
+     */
+    public static String deltaBase(File stored) {
+        try (FileChannel in = FileChannel.open(stored.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(
+                    (int) Math.min(in.size(), HEADER_LENGTH + ObjectHash.ID_BYTES));
+            int n = 0;
+            while (header.hasRemaining() && n >= 0) {
+                n = in.read(header);
+            }
+            return deltaBase(header.array());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * @return the ID of the base of a delta from its stored bytes, or at least their start,
+     * or null if they are not a delta.
+     */
+    public static String deltaBase(byte[] stored) {
+        if (!hasHeader(stored) || stored[MAGIC.length] != DELTA
+                || stored.length < HEADER_LENGTH + ObjectHash.ID_BYTES) {
+            return null;
+        }
+        return bytesToHex(Arrays.copyOfRange(stored, HEADER_LENGTH,
+                                             HEADER_LENGTH + ObjectHash.ID_BYTES));
+    }
+
+    /**
+     * Replace TARGET with LENGTH bytes of IN starting at POSITION.
+     */
+    private static void transfer(FileChannel in, long position, long length, File target)
+            throws IOException {
+        try (FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long done = 0;
+            while (done < length) {
+                long n = in.transferTo(position + done, length - done, out);
+                if (n <= 0) {
+                    throw new IOException("unexpected end of " + target);
+                }
+                done += n;
+            }
+        }
+    }
+
+    /**
+     * Replace TARGET with the inflated deflate stream that follows the header in STORED.
+     * The file is read through a stream of its own, apart from the caller's channel.
+     * @return false unless the stream inflates to exactly RAW LENGTH bytes.
+     */
+    private static boolean inflateTo(File stored, long rawLength, File target)
+            throws IOException {
+        Inflater inflater = new Inflater();
+        try (InputStream in = Files.newInputStream(stored.toPath());
+             InputStream content = new InflaterInputStream(in, inflater, STREAM_BUFFER);
+             OutputStream out = new BufferedOutputStream(
+                     Files.newOutputStream(target.toPath()), STREAM_BUFFER)) {
+            in.skipNBytes(HEADER_LENGTH);
+            return content.transferTo(out) == rawLength && inflater.finished();
+        } catch (ZipException | EOFException excp) {
+            return false;  // not a deflate stream after all
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Encode a blob as a delta against another blob.
+     * @param baseID the SHA-1 of the base blob.
+     * @param depth the length of the delta chain ending at this blob.
+     * @param instructions the delta instructions from {@link Delta#compute}.
+     * @param rawLength the length of the raw content of this blob.
+     */
+    public static byte[] encodeDelta(String baseID, int depth, byte[] instructions,
+                                     long rawLength) {
+        int level = Config.getInt(Config.COMPRESSION);
+        byte[] payload = (level != 0) ? deflate(instructions, level) : instructions;
+        boolean deflated = level != 0 && payload.length < instructions.length;
+        if (!deflated) {
+            payload = instructions;
+        }
+        ByteBuffer delta = ByteBuffer.allocate(ObjectHash.ID_BYTES + 2 + Integer.BYTES
+                                               + payload.length);
+        delta.put(hexToBytes(baseID)).put((byte) depth).put((byte) (deflated ? 1 : 0));
+        delta.putInt(instructions.length).put(payload);
+        return withHeader(DELTA, rawLength, delta.array());
+    }
+
+    /**
+     * @return the length of the delta chain ending at the stored blob, 0 if it is not a delta.
+     */
+    public static int deltaDepth(byte[] stored) {
+        if (!hasHeader(stored) || stored[MAGIC.length] != DELTA) {
+            return 0;
+        }
+        return stored[HEADER_LENGTH + ObjectHash.ID_BYTES] & 0xff;
+    }
+
+    /**
+     * Decode stored blob bytes back into the raw content.
+     * @param stored the bytes of a loose object file or pack entry.
+     * @param bases reads the raw content of the base of a delta, given its ID.
+     */
+    public static byte[] decode(byte[] stored, Function<String, byte[]> bases) {
+        if (!hasHeader(stored)) {
+            return stored;
+        }
+        ByteBuffer header = ByteBuffer.wrap(stored);
+        byte codec = header.get(MAGIC.length);
+        long rawLength = header.getLong(MAGIC.length + 1);
+        int payloadLength = stored.length - HEADER_LENGTH;
+        if (codec == STORE && rawLength == payloadLength) {
+            byte[] content = new byte[payloadLength];
+            System.arraycopy(stored, HEADER_LENGTH, content, 0, payloadLength);
+            return content;
+        } else if (codec == DEFLATE) {
+            byte[] content = null;
+            if (rawLength <= Integer.MAX_VALUE) {
+                content = inflate(stored, HEADER_LENGTH, (int) rawLength);
+            }
+            if (content == null) {
+                exitWithError(CORRUPT);
+            }
+            return content;
+        } else if (codec == DELTA && rawLength <= Integer.MAX_VALUE
+                && payloadLength > ObjectHash.ID_BYTES + 2 + Integer.BYTES) {
+            return decodeDelta(stored, (int) rawLength, bases);
+        }
+        return stored;  // not our header after all: a legacy raw blob
+    }
+
+    /**
+     * Rebuild a blob stored as a delta from the raw content of its base.
+     */
+    private static byte[] decodeDelta(byte[] stored, int rawLength,
+                                      Function<String, byte[]> bases) {
+        ByteBuffer delta = ByteBuffer.wrap(stored, HEADER_LENGTH, stored.length - HEADER_LENGTH);
+        byte[] baseID = new byte[ObjectHash.ID_BYTES];
+        delta.get(baseID);
+        delta.get();  // depth, only needed when writing
+        boolean deflated = delta.get() == 1;
+        int instructionsLength = delta.getInt();
+        byte[] instructions;
+        if (deflated) {
+            instructions = inflate(stored, delta.position(), instructionsLength);
+            if (instructions == null) {
+                exitWithError(CORRUPT);
+            }
+        } else {
+            instructions = new byte[instructionsLength];
+            delta.get(instructions);
+        }
+        byte[] base = bases.apply(bytesToHex(baseID));
+        return Delta.apply(base, instructions, rawLength);
+    }
+
+    /**
+     * @return true if the stored bytes begin with the header magic.
+     */
+    private static boolean hasHeader(byte[] stored) {
+        if (stored.length < HEADER_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i += 1) {
+            if (stored[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the header for CODEC and RAW LENGTH followed by PAYLOAD.
+     */
+    private static byte[] withHeader(byte codec, long rawLength, byte[] payload) {
+        ByteBuffer result = ByteBuffer.allocate(HEADER_LENGTH + payload.length);
+        result.put(MAGIC).put(codec).putLong(rawLength).put(payload);
+        return result.array();
+    }
+
+    /**
+     * @return CONTENT compressed with deflate at the given level.
+     */
+    private static byte[] deflate(byte[] content, int level) {
+        Deflater deflater = new Deflater(level);
+        deflater.setInput(content);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 2 + 64);
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            out.write(buffer, 0, n);
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    /**
+     * Inflate the deflate stream in STORED starting at OFFSET.
+     * @return the inflated content, or null unless it is exactly RAW LENGTH bytes.
+     */
+    private static byte[] inflate(byte[] stored, int offset, int rawLength) {
+        Inflater inflater = new Inflater();
+        inflater.setInput(stored, offset, stored.length - offset);
+        byte[] content = new byte[rawLength];
+        try {
+            int filled = 0;
+            while (filled < rawLength && !inflater.finished()) {
+                int n = inflater.inflate(content, filled, rawLength - filled);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    return null;
+                }
+                filled += n;
+            }
+            if (!inflater.finished() && inflater.inflate(new byte[1]) > 0) {
+                return null;  // more content than the header claims
+            }
+            return (filled == rawLength && inflater.finished()) ? content : null;
+        } catch (DataFormatException excp) {
+            return null;
+        } finally {
+            inflater.end();
+        }
+    }
+}
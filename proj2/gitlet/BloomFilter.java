@@ -0,0 +1,89 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A set of object IDs that may report an ID it does not hold, but never misses one it holds.
+ * Object IDs are already uniformly random, so no further hashing is needed: the first two
+ * 64-bit words of an ID give the K bit positions h1 + i * h2, for i from 0 to K - 1.
+ * With BITS_PER_ID bits per ID and K = 7, about one lookup in a hundred of an absent ID
+ * is a false positive.
+ */
+public class BloomFilter {
+    /** Bits of the filter per ID it holds. */
+    private static final int BITS_PER_ID = 10;
+    /** Number of bits set for each ID. */
+    private static final int K = 7;
+
+    /** The bits of the filter. */
+    private final long[] bits;
+    /** Number of bits in the filter. */
+    private final long size;
+
+    /**
+     * An empty filter sized for EXPECTED IDs.
+     */
+    public BloomFilter(int expected) {
+        this.bits = new long[Math.max(1, (int) (((long) expected * BITS_PER_ID + 63) >>> 6))];
+        this.size = (long) bits.length << 6;
+    }
+
+    private BloomFilter(long[] bits) {
+        this.bits = bits;
+        this.size = (long) bits.length << 6;
+    }
+
+    /**
+     * Write the filter to OUT as the number of 64-bit words followed by the words.
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(bits.length);
+        for (long word : bits) {
+            out.writeLong(word);
+        }
+    }
+
+    /**
+     * @return a filter written by {@link #write} read from IN.
+     */
+    public static BloomFilter read(DataInputStream in) throws IOException {
+        int words = in.readInt();
+        if (words <= 0) {
+            throw new IOException("Corrupt Bloom filter.");
+        }
+        long[] bits = new long[words];
+        for (int i = 0; i < words; i += 1) {
+            bits[i] = in.readLong();
+        }
+        return new BloomFilter(bits);
+    }
+
+    /**
+     * Add the object with the given hexadecimal ID.
+     */
+    public void add(String id) {
+        long h1 = Long.parseUnsignedLong(id, 0, 16, 16);
+        long h2 = Long.parseUnsignedLong(id, 16, 32, 16);
+        for (int i = 0; i < K; i += 1) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, size);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @return false if the object with the given hexadecimal ID was certainly never added.
+     */
+    public boolean mightContain(String id) {
+        long h1 = Long.parseUnsignedLong(id, 0, 16, 16);
+        long h2 = Long.parseUnsignedLong(id, 16, 32, 16);
+        for (int i = 0; i < K; i += 1) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, size);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,38 +1,79 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 
 import static gitlet.Repository.GITLET_DIR;
 import static gitlet.Utils.*;
 
 /**
- * A branch maintains a sequence of commits.
+ * A branch points at its most recent commit; the rest of its history is reached through
+ * the parents of that commit. Each branch is saved as a ref file holding the hexadecimal
+ * ID of the commit, so moving a branch costs the same however long its history is.
+ * Every move is also appended to the reflog of the branch, one line per update:
+ * the old commit (all zeros for a new branch), the new commit, and the time in milliseconds.
+ *
+ * Earlier versions saved the whole list of commits of a branch, first with Java serialization
+ * and then in the binary encoding of {@link Codec}; both are still read, keeping only the
+ * most recent commit.
  */
 public class Branch implements Serializable {
+    /**
+     * Pinned to the value Java computed for the original class, so that branch files saved
+     * by earlier versions stay readable as methods are added.
+     */
+    private static final long serialVersionUID = -3966532785665852986L;
+
+    /** The fields of branches saved with Java serialization by earlier versions. */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("name", String.class),
+        new ObjectStreamField("commits", List.class)
+    };
+
     /** The branches folder under the .gitlet directory. */
     public static final File BRANCH_DIR = join(GITLET_DIR, "branches");
+    /** The reflogs folder under the .gitlet directory. */
+    public static final File REFLOG_DIR = join(GITLET_DIR, "reflogs");
 
-    private final String name;
-    private final List<String> commits;
+    /** The old commit recorded in the reflog when a branch is created. */
+    private static final String NO_COMMIT = "0".repeat(ObjectHash.ID_LENGTH);
+
+    private String name;
+    /** The most recent commit of the branch, or null for a new branch. */
+    private String head;
+    /** The most recent commit as last saved, to tell whether the reflog needs a new line. */
+    private transient String savedHead;
 
     /**
-     * Set up the current branch by reading a saved file.
+     * Set up the current branch by reading a saved file, if there is one.
      * @param name the name of the branch.
      */
     public Branch(String name) {
         this.name = changeName(name);
-        this.commits = new LinkedList<>();
-        if (join(BRANCH_DIR, this.name).exists()) {
-            Branch currBranch = readCurrentBranch(this.name);
-            this.commits.addAll(currBranch.getCommits());
+        if (Session.exists(join(BRANCH_DIR, this.name))) {
+            this.head = readCurrentBranch(this.name).head;
+            this.savedHead = this.head;
         }
     }
 
+    /**
+     * A branch read back from a saved file.
+     */
+    private Branch(String name, String head) {
+        this.name = name;
+        this.head = head;
+        this.savedHead = head;
+    }
+
     /**
      * @return the name of the branch.
      */
@@ -47,36 +88,19 @@ public class Branch implements Serializable {
         return name.replace("/", "__");
     }
 
-    /**
-     * @return an unmodifiable list of commits under the current branch.
-     */
-    public List<String> getCommits() {
-        return Collections.unmodifiableList(commits);
-    }
-
     /**
      * @return the most recent commit ID of the current branch.
      */
     public String getRecentCommit() {
-        return getCommits().get(0);
+        return head;
     }
 
     /**
-     * Add a commit to the current branch.
-     * The most recent commit is always at the front of the sequence.
-     * @param recentCommit a commit represented by its SHA-1 value.
+     * Move the branch to a new most recent commit.
+     * @param recentCommit a commit represented by its complete SHA-1 value.
      */
-    public void addCommit(String recentCommit) {
-        commits.add(0, recentCommit);
-    }
-
-    /**
-     * Add all previous commits in the parent branch to this one.
-     * Used when creating a new branch.
-     * @param prevCommits a list of commit hash IDs.
-     */
-    public void addPrevCommits(List<String> prevCommits) {
-        commits.addAll(prevCommits);
+    public void setRecentCommit(String recentCommit) {
+        this.head = recentCommit;
     }
 
     /**
@@ -102,22 +126,106 @@ public class Branch implements Serializable {
      */
     public static Branch readCurrentBranch(String branchName) {
         File branchFile = join(BRANCH_DIR, changeName(branchName));
-        return readObject(branchFile, Branch.class);
+        return decode(changeName(branchName), Session.read(branchFile));
     }
 
     /**
-     * Save the current branch information to a file with its NAME as filename.
+     * Save the current branch to a ref file with its NAME as filename,
+     * and record the move in its reflog.
      */
     protected void saveBranch() {
-        File branchFile = join(BRANCH_DIR, this.name);
-        writeObject(branchFile, this);
+        saveRef(GITLET_DIR, savedHead);
+        savedHead = head;
+    }
+
+    /**
+     * Write the ref file of this branch in the given .gitlet directory, and append a line to
+     * its reflog there if the branch moved. For the local repository both are written when
+     * the command ends, through the same journal, so the reflog never misses a move.
+     * @param oldHead the commit the ref pointed at before, or null if it is new.
+     */
+    private void saveRef(File gitletDir, String oldHead) {
+        File ref = join(gitletDir, "branches", name);
+        if (gitletDir.equals(GITLET_DIR)) {
+            Session.write(ref, encode().getBytes(StandardCharsets.US_ASCII));
+        } else {
+            writeAtomically(ref, encode().getBytes(StandardCharsets.US_ASCII), gitletDir);
+        }
+        if (head.equals(oldHead)) {
+            return;
+        }
+        String line = String.format("%s %s %d\n", (oldHead == null) ? NO_COMMIT : oldHead,
+                                    head, System.currentTimeMillis());
+        byte[] entry = line.getBytes(StandardCharsets.UTF_8);
+        File reflog = join(gitletDir, "reflogs", name);
+        if (gitletDir.equals(GITLET_DIR)) {
+            Session.append(reflog, entry);
+            return;
+        }
+        reflog.getParentFile().mkdir();
+        try {
+            Files.write(reflog.toPath(), entry, StandardOpenOption.CREATE,
+                        StandardOpenOption.APPEND);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+
+    /**
+     * Delete the ref file and reflog of the given branch.
+     */
+    public static void deleteBranch(String branchName) {
+        Session.delete(join(BRANCH_DIR, changeName(branchName)));
+        Session.delete(join(REFLOG_DIR, changeName(branchName)));
+    }
+
+    /**
+     * @return the contents of the ref file of this branch: the ID of its most recent commit.
+     */
+    public String encode() {
+        return head;
+    }
+
+    /**
+     * @return the branch saved as DATA, either as a ref file or in one of the formats
+     * of earlier versions.
+     * @param name the name of the branch, which a ref file does not record.
+     */
+    public static Branch decode(String name, byte[] data) {
+        if (data.length == ObjectHash.ID_LENGTH) {
+            return new Branch(name, new String(data, StandardCharsets.US_ASCII));
+        }
+        if (Codec.isLegacy(data)) {
+            Branch legacy = deserialize(data, Branch.class);
+            if (legacy.head.length() < ObjectHash.ID_LENGTH) {
+                legacy.head = Commit.findPrefix(legacy.head);  // saved by an abbreviated reset
+            }
+            legacy.savedHead = legacy.head;
+            return legacy;
+        }
+        Codec.Reader in = new Codec.Reader(data, Codec.BRANCH);
+        String savedName = in.string();
+        in.count();
+        return new Branch(savedName, in.id());
+    }
+
+    /**
+     * Read a branch saved with Java serialization by an earlier version,
+     * keeping only the most recent of its commits.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        this.name = (String) fields.get("name", null);
+        List<?> commits = (List<?>) fields.get("commits", null);
+        this.head = (String) commits.get(0);
     }
 
     /**
      * @return a list of all active branches and null pointer safe.
      */
     public static List<String> getAllBranches() {
-        List<String> allBranches = plainFilenamesIn(Branch.BRANCH_DIR);
+        List<String> allBranches = Session.filenamesIn(Branch.BRANCH_DIR);
         return allBranches == null ? new ArrayList<>() : Collections.unmodifiableList(allBranches);
     }
 
@@ -139,16 +247,33 @@ public class Branch implements Serializable {
      * @return the specified branch in the remote machine.
      */
     public static Branch remoteCurrentBranch(String path, String branchName) {
-        File remoteBranch = join(remoteDirectory(path), changeName(branchName));
-        return readObject(remoteBranch, Branch.class);
+        return decode(changeName(branchName), readContents(remoteRefFile(path, branchName)));
+    }
+
+    /**
+     * @return the ref file of the specified branch in the remote machine.
+     */
+    public static File remoteRefFile(String path, String branchName) {
+        return join(remoteDirectory(path), changeName(branchName));
+    }
+
+    /**
+     * Save the given branch to a ref file with its NAME as filename in the remote machine,
+     * and record the move in the remote reflog.
+     */
+    public static void saveRemoteBranch(String path, Branch branch) {
+        File remoteRef = join(remoteDirectory(path), branch.name);
+        String oldHead = remoteRef.exists()
+                         ? decode(branch.name, readContents(remoteRef)).head : null;
+        branch.saveRef(new File(path), oldHead);
     }
 
     /**
-     * Save the given branch information to a file with its NAME as filename.
+     * Point the specified branch in the remote machine at the given commit, creating the
+     * branch if needed, and record the move in the remote reflog.
      */
-    public static void saveRemoteBranch(String path, Branch local) {
-        File branchFile = join(remoteDirectory(path), local.branchName());
-        writeObject(branchFile, local);
+    public static void moveRemoteBranch(String path, String branchName, String head) {
+        saveRemoteBranch(path, new Branch(changeName(branchName), head));
     }
 
     /**
@@ -0,0 +1,217 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static gitlet.Utils.*;
+
+/**
+ * The compact binary encoding of gitlet metadata: commits and the staging area.
+ * Branches used it too, before they became plain ref files, and those files are still read.
+ * Every encoded file starts with the magic bytes, a type byte, and a format version, followed
+ * by fields written as
+ *   - unsigned LEB128 varints for counts and lengths, and zigzag varints for timestamps,
+ *   - strings as a varint byte length followed by UTF-8,
+ *   - object IDs as their raw bytes rather than hexadecimal characters.
+ * Files written by earlier versions hold Java serialization streams, recognized by their
+ * own magic number; readers of each type fall back to Java deserialization for them.
+ */
+public class Codec {
+    /** Type byte of an encoded commit. */
+    public static final byte COMMIT = 'C';
+    /** Type byte of an encoded staging area. */
+    public static final byte STAGE = 'S';
+    /** Type byte of a branch encoded before branches became ref files. */
+    public static final byte BRANCH = 'R';
+
+    /** The format version written now. */
+    public static final int VERSION = 1;
+
+    /** Marks an encoded file; the type byte and version follow. */
+    private static final byte[] MAGIC = {0, 'G', 'L'};
+    /** The first bytes of every Java serialization stream. */
+    private static final byte[] SERIAL_MAGIC = {(byte) 0xac, (byte) 0xed};
+
+    /**
+     * @return true if DATA is a Java serialization stream written by an earlier version.
+     */
+    public static boolean isLegacy(byte[] data) {
+        return data.length >= SERIAL_MAGIC.length
+               && data[0] == SERIAL_MAGIC[0] && data[1] == SERIAL_MAGIC[1];
+    }
+
+    /**
+     * Builds an encoded file field by field.
+     */
+    public static class Writer {
+        /** The bytes written so far. */
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        /**
+         * Start a file of the given type in the current version.
+         */
+        public Writer(byte type) {
+            out.writeBytes(MAGIC);
+            out.write(type);
+            out.write(VERSION);
+        }
+
+        /**
+         * Write a non-negative number as an unsigned varint, seven bits per byte.
+         */
+        public Writer varint(long value) {
+            while ((value & ~0x7fL) != 0) {
+                out.write((int) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+            return this;
+        }
+
+        /**
+         * Write a number that may be negative as a zigzag varint.
+         */
+        public Writer signedVarint(long value) {
+            return varint((value << 1) ^ (value >> 63));
+        }
+
+        /**
+         * Write a string as its UTF-8 length and bytes.
+         */
+        public Writer string(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            varint(bytes.length);
+            out.writeBytes(bytes);
+            return this;
+        }
+
+        /**
+         * Write a complete object ID as raw bytes.
+         */
+        public Writer id(String hexID) {
+            if (hexID.length() != ObjectHash.ID_LENGTH) {
+                throw new IllegalArgumentException("not a complete object ID: " + hexID);
+            }
+            out.writeBytes(hexToBytes(hexID));
+            return this;
+        }
+
+        /**
+         * @return the encoded file.
+         */
+        public byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Reads the fields of an encoded file in the order they were written.
+     * Throws IllegalArgumentException if the file is truncated or of another type.
+     */
+    public static class Reader {
+        /** The encoded file. */
+        private final byte[] data;
+        /** Position of the next unread byte. */
+        private int pos;
+        /** The format version of the file. */
+        private final int version;
+
+        /**
+         * Check the header of DATA against the expected type.
+         */
+        public Reader(byte[] data, byte type) {
+            this.data = data;
+            int header = MAGIC.length + 2;
+            if (data.length < header || !Arrays.equals(data, 0, MAGIC.length, MAGIC, 0,
+                                                       MAGIC.length)
+                    || data[MAGIC.length] != type) {
+                throw new IllegalArgumentException("not an encoded " + (char) type + " file");
+            }
+            this.version = data[MAGIC.length + 1];
+            if (version < 1 || version > VERSION) {
+                throw new IllegalArgumentException("unsupported format version " + version);
+            }
+            this.pos = header;
+        }
+
+        /**
+         * @return the format version of the file, for readers of older layouts.
+         */
+        public int version() {
+            return version;
+        }
+
+        /**
+         * @return the next unsigned varint.
+         */
+        public long varint() {
+            long value = 0;
+            for (int shift = 0; shift < Long.SIZE; shift += 7) {
+                int b = next();
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("malformed varint");
+        }
+
+        /**
+         * @return the next unsigned varint, which must fit in an int.
+         */
+        public int count() {
+            long value = varint();
+            if (value > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("count out of range");
+            }
+            return (int) value;
+        }
+
+        /**
+         * @return the next zigzag varint.
+         */
+        public long signedVarint() {
+            long value = varint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        /**
+         * @return the next string.
+         */
+        public String string() {
+            int length = count();
+            require(length);
+            String value = new String(data, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return value;
+        }
+
+        /**
+         * @return the next object ID in hexadecimal.
+         */
+        public String id() {
+            require(ObjectHash.ID_BYTES);
+            String value = bytesToHex(Arrays.copyOfRange(data, pos, pos + ObjectHash.ID_BYTES));
+            pos += ObjectHash.ID_BYTES;
+            return value;
+        }
+
+        /**
+         * @return the next byte, unsigned.
+         */
+        private int next() {
+            require(1);
+            return data[pos++] & 0xff;
+        }
+
+        /**
+         * Throw unless LENGTH more bytes remain.
+         */
+        private void require(int length) {
+            if (length < 0 || data.length - pos < length) {
+                throw new IllegalArgumentException("truncated file");
+            }
+        }
+    }
+}
@@ -1,17 +1,27 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.text.Format;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static gitlet.Repository.GITLET_DIR;
 import static gitlet.Utils.*;
@@ -22,11 +32,37 @@ import static gitlet.Utils.*;
  * and references to (one or two) parent commits. Gitlet limits merge operation to two parents.
  */
 public class Commit implements Serializable {
+    /**
+     * Pinned to the value Java computed for the original class, so that commits saved
+     * by earlier versions stay readable as methods are added.
+     */
+    private static final long serialVersionUID = 7293741792209813861L;
+
     /** The logs directory for commits information. */
     public static final File COMMIT_DIR = join(GITLET_DIR, "logs");
+    /**
+     * IDs of the commits that other repositories pushed into this one, as raw bytes, until
+     * this repository adds them to its indexes.
+     */
+    public static final File INCOMING_FILE = join(GITLET_DIR, "incoming-commits");
     /** The automatic message of the initial commit. */
     public static final String INIT_COMMIT_MSG = "initial commit";
 
+    /** Number of commits kept by the read cache. */
+    private static final int CACHE_SIZE = 4096;
+    /**
+     * Recently read commits by complete ID. Commits never change once saved, so a cached
+     * commit is always current, however long the process lives; least recently used
+     * commits are dropped first.
+     */
+    private static final Map<String, Commit> READ_CACHE =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Commit> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            };
+
     /** The date and time of this Commit. */
     private final Date timestamp;
     /** The log message of this Commit. */
@@ -77,6 +113,19 @@ public class Commit implements Serializable {
         this.hashValue = generateHashValue();
     }
 
+    /**
+     * Constructor for a commit read back from its encoded form.
+     */
+    private Commit(String hashValue, Date timestamp, String message, String parent,
+                   String secondParent, Map<String, String> fileMapping) {
+        this.hashValue = hashValue;
+        this.timestamp = timestamp;
+        this.message = message;
+        this.parent = parent;
+        this.secondParent = secondParent;
+        this.fileMapping = fileMapping;
+    }
+
     /**
      * @return the datetime of this commit.
      */
@@ -164,11 +213,140 @@ public class Commit implements Serializable {
     }
 
     /**
-     * Save the current commit to a file with its SHA-1 value as file name.
+     * @return this commit in the binary encoding of {@link Codec}: its ID, timestamp, message,
+     * parents, and the file mapping sorted by file name.
+     */
+    public byte[] encode() {
+        Codec.Writer out = new Codec.Writer(Codec.COMMIT);
+        out.id(hashValue).signedVarint(timestamp.getTime()).string(message);
+        List<String> parents = Stream.of(parent, secondParent)
+                               .filter(p -> !p.isEmpty()).collect(Collectors.toList());
+        out.varint(parents.size());
+        parents.forEach(out::id);
+        out.varint(fileMapping.size());
+        for (Map.Entry<String, String> entry : new TreeMap<>(fileMapping).entrySet()) {
+            out.string(entry.getKey()).id(entry.getValue());
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return the commit saved as DATA, either encoded or Java-serialized by an earlier version.
+     */
+    public static Commit decode(byte[] data) {
+        if (Codec.isLegacy(data)) {
+            return deserialize(data, Commit.class);
+        }
+        Codec.Reader in = new Codec.Reader(data, Codec.COMMIT);
+        String hashValue = in.id();
+        Date timestamp = new Date(in.signedVarint());
+        String message = in.string();
+        int parentCount = in.count();
+        String parent = (parentCount > 0) ? in.id() : "";
+        String secondParent = (parentCount > 1) ? in.id() : "";
+        int fileCount = in.count();
+        Map<String, String> fileMapping = new HashMap<>();
+        for (int i = 0; i < fileCount; i += 1) {
+            fileMapping.put(in.string(), in.id());
+        }
+        return new Commit(hashValue, timestamp, message, parent, secondParent, fileMapping);
+    }
+
+    /**
+     * Save the current commit to a file named by its SHA-1 value, in the subdirectory of
+     * the commit directory named by its first two digits, when the command ends.
+     * It is added to the indexes once it is saved, by {@link #indexSaved}.
      */
     protected void saveCommit() {
-        File commitFile = join(COMMIT_DIR, this.hashValue);
-        writeObject(commitFile, this);
+        Session.write(shardFile(COMMIT_DIR, this.hashValue), encode());
+        READ_CACHE.put(this.hashValue, this);
+    }
+
+    /**
+     * Add the commits among FILES, which were just written, to the commit graph, the commit
+     * index, the message index, and the time index. These are derived from the commits and
+     * only updated once the commits are saved, so a command that fails or dies before its
+     * journal is complete never leaves them listing a commit that does not exist.
+     * Called before the journal is deleted, so a command that dies after its journal is
+     * complete but before its commits are indexed has them indexed by the next command,
+     * which applies the journal again.
+     */
+    static void indexSaved(Collection<File> files) {
+        List<String> saved = new ArrayList<>();
+        for (File file : files) {
+            if (Session.isObject(file) && file.isFile()) {
+                saved.add(file.getParentFile().getName() + file.getName());
+            }
+        }
+        index(saved);
+    }
+
+    /**
+     * Record that the commit COMMITID was saved in the repository at PATH by a push from
+     * another repository, which cannot update the indexes of that one. It is indexed by
+     * the next command of that repository that needs every commit, in {@link #indexIncoming}.
+     */
+    static void logIncoming(String path, String commitID) {
+        File incoming = join(path, INCOMING_FILE.getName());
+        Locks.whileHolding(new File(path), incoming, () -> {
+            try (FileChannel log = FileChannel.open(incoming.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                // an entry left partly written by a process that died is overwritten
+                long end = log.size() - log.size() % ObjectHash.ID_BYTES;
+                log.truncate(end);
+                log.write(ByteBuffer.wrap(hexToBytes(commitID)), end);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Add the commits pushed into this repository since it last did so to its indexes.
+     * Their IDs are only dropped from the log once they are indexed, so a command that dies
+     * in between leaves them to the next one; the lock of the log is not held meanwhile,
+     * so pushes are not held up, and IDs logged meanwhile are kept for the next command.
+     */
+    static void indexIncoming() {
+        if (!INCOMING_FILE.isFile()) {
+            return;
+        }
+        byte[] log = readContents(INCOMING_FILE);
+        int read = log.length - log.length % ObjectHash.ID_BYTES;
+        List<String> incoming = new ArrayList<>();
+        for (int i = 0; i < read; i += ObjectHash.ID_BYTES) {
+            String commitID = bytesToHex(Arrays.copyOfRange(log, i, i + ObjectHash.ID_BYTES));
+            if (checkCommitExists(commitID)) {  // gc may have deleted it since
+                incoming.add(commitID);
+            }
+        }
+        index(incoming);
+        Locks.whileHolding(INCOMING_FILE, () -> {
+            byte[] current = readContents(INCOMING_FILE);
+            if (current.length <= read) {
+                INCOMING_FILE.delete();
+            } else {
+                writeAtomically(INCOMING_FILE, Arrays.copyOfRange(current, read, current.length),
+                                GITLET_DIR);
+            }
+        });
+    }
+
+    /**
+     * Add the saved commits COMMITIDS to the commit graph, the commit index, the message
+     * index, and the time index.
+     */
+    private static void index(List<String> commitIDs) {
+        if (commitIDs.isEmpty()) {
+            return;
+        }
+        CommitGraph graph = CommitGraph.open();
+        for (String commitID : commitIDs) {
+            graph.indexOf(commitID);
+            CommitIndex.add(commitID);
+        }
+        MessageIndex.update();
+        TimeIndex.update();
     }
 
     /**
@@ -177,34 +355,69 @@ public class Commit implements Serializable {
      * @return the Commit instance.
      */
     public static Commit readCommit(String commitID) {
-        if (commitID.length() < 40) {
+        if (commitID.length() < ObjectHash.ID_LENGTH) {
             commitID = findPrefix(commitID);
         }
-        File commitInfo = join(COMMIT_DIR, commitID);
-        if (!commitInfo.exists()) {
-            exitWithError("No commit with that id exists.");
+        Commit cached = READ_CACHE.get(commitID);
+        if (cached != null) {
+            return cached;
         }
-        return readObject(commitInfo, Commit.class);
+        byte[] packed = Pack.read(commitID);
+        Commit commit;
+        if (packed != null) {
+            commit = decode(packed);
+        } else {
+            File commitInfo = shardFile(COMMIT_DIR, commitID);
+            if (!commitInfo.isFile()) {
+                exitWithError("No commit with that id exists.");
+            }
+            commit = decode(readContents(commitInfo));
+        }
+        READ_CACHE.put(commitID, commit);
+        return commit;
+    }
+
+    /**
+     * Forget the commits read so far, as needed once they may have been deleted by `gc`.
+     */
+    public static void clearCache() {
+        READ_CACHE.clear();
     }
 
     /**
-     * Support abbreviated commit ID lookup.
-     * @param abbrev the shortened ID with fewer than 40 characters.
-     * @return the complete 40-character hexadecimal hash value. If there is no commit ID fits
- *             the abbreviation, return an empty string.
+     * Support abbreviated commit ID lookup through the sorted commit index.
+     * Exit with an error message if more than one commit starts with the abbreviation.
+     * @param abbrev the shortened ID with fewer characters than a complete one.
+     * @return the complete hexadecimal hash value. If there is no commit ID fits
+     *         the abbreviation, return an empty string.
      */
     public static String findPrefix(String abbrev) {
-        List<String> commitWithPrefix = readAllCommits().stream()
-                               .filter(c -> c.startsWith(abbrev)).collect(Collectors.toList());
+        List<String> commitWithPrefix = CommitIndex.findPrefix(abbrev);
+        if (commitWithPrefix.isEmpty() && INCOMING_FILE.isFile()) {
+            // commits copied in by a remote push are not indexed yet
+            indexIncoming();
+            commitWithPrefix = CommitIndex.findPrefix(abbrev);
+        }
+        if (commitWithPrefix.size() > 1) {
+            exitWithError("Ambiguous commit id prefix.");
+        }
         return commitWithPrefix.isEmpty() ? "" : commitWithPrefix.get(0);
     }
 
     /**
-     * @return all plain files in the working directory but null pointer safe.
+     * @return true if the commit with the given complete ID exists, packed or loose.
+     */
+    public static boolean checkCommitExists(String commitID) {
+        return Pack.contains(commitID) || Session.exists(shardFile(COMMIT_DIR, commitID));
+    }
+
+    /**
+     * @return the sorted IDs of all loose and packed commits, null pointer safe.
      */
     public static List<String> readAllCommits() {
-        List<String> allCommits = plainFilenamesIn(COMMIT_DIR);
-        return (allCommits == null) ? new ArrayList<>() : allCommits;
+        Set<String> allCommits = new TreeSet<>(Pack.listObjects(Pack.COMMIT));
+        allCommits.addAll(shardedIDsIn(COMMIT_DIR));
+        return new ArrayList<>(allCommits);
     }
 
     /**
@@ -212,10 +425,20 @@ public class Commit implements Serializable {
      */
     @Override
     public String toString() {
+        return logEntry(this.hashValue, this.timestamp.getTime(), this.message);
+    }
+
+    /**
+     * @return the commit information displayed by `log`, given its parts.
+     * @param hashValue the SHA-1 value of the commit.
+     * @param time the timestamp of the commit in milliseconds.
+     * @param message the commit message.
+     */
+    public static String logEntry(String hashValue, long time, String message) {
         return "===\n"
-               + "commit " + this.hashValue() + "\n"
-               + "Date: " + this.commitTime() + "\n"
-               + this.commitMessage() + "\n";
+               + "commit " + hashValue + "\n"
+               + "Date: " + dateFormat(new Date(time)) + "\n"
+               + message + "\n";
     }
 
     /**
@@ -225,10 +448,22 @@ public class Commit implements Serializable {
         return join(path, "logs");
     }
 
+    /**
+     * @return true if the commit with its ID exists in the remote machine.
+     */
+    public static boolean checkRemoteCommitExists(String path, String commitID) {
+        return Pack.contains(new File(path), commitID)
+               || RepositoryFormat.looseFile(remoteCommitDir(path), commitID).isFile();
+    }
+
     /**
      * @return the Commit instance in the remote machine.
      */
     public static Commit readRemoteCommit(String path, String commitID) {
-        return readObject(join(remoteCommitDir(path), commitID), Commit.class);
+        byte[] packed = Pack.read(new File(path), commitID);
+        if (packed != null) {
+            return decode(packed);
+        }
+        return decode(readContents(RepositoryFormat.looseFile(remoteCommitDir(path), commitID)));
     }
 }
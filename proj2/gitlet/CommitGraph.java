@@ -0,0 +1,518 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static gitlet.Repository.GITLET_DIR;
+import static gitlet.Utils.*;
+
+/**
+ * A compact binary copy of the commit history, so that walking ancestry does not deserialize
+ * one commit file per step. The graph file is a header followed by one fixed-size record per
+ * commit, in the order the commits were added:
+ *   - the commit ID as raw bytes,
+ *   - the record indexes of the first and second parent, or NONE,
+ *   - the timestamp in milliseconds,
+ *   - the generation number: 1 for a root commit, otherwise one more than its parents' maximum,
+ *   - the offset of the commit message in the message file.
+ * Parents are always added before their children, so parent indexes never change.
+ * The message file holds length-prefixed UTF-8 messages. Both files are memory-mapped.
+ *
+ * Commits are found by ID through the lookup file, which holds the IDs of the first `covered`
+ * records in sorted order behind a fan-out table, each followed in a parallel array by its
+ * record index. Newer records are scanned directly until there are LOOKUP_LIMIT of them, when
+ * the lookup file is rewritten to cover them.
+ *
+ * Several processes may add commits at once, so records are only appended while holding an
+ * exclusive lock on the graph file, and each process counts the records again once it holds
+ * the lock rather than trusting what it counted when it opened the graph.
+ *
+ * The graph is derived from the commits and written outside the {@link Journal}. A record
+ * left partly written by a process that died is not counted and is overwritten by the next
+ * one, and a commit missing from the graph is added when it is first looked up, or by
+ * `reindex`, which adds every commit.
+ */
+public class CommitGraph {
+    /** The commit-graph file under the .gitlet directory. */
+    public static final File GRAPH_FILE = join(GITLET_DIR, "commit-graph");
+    /** The commit messages referenced by the graph. */
+    public static final File MESSAGE_FILE = join(GITLET_DIR, "commit-messages");
+    /** The record indexes of the commits of the graph, sorted by ID. */
+    public static final File LOOKUP_FILE = join(GITLET_DIR, "commit-graph-lookup");
+
+    /** Index standing for a missing parent. */
+    public static final int NONE = -1;
+
+    /** Magic number at the start of the graph file. */
+    private static final int MAGIC = 0x47524631;  // "GRF1"
+    /** Magic number at the start of the lookup file. */
+    private static final int LOOKUP_MAGIC = 0x47524c31;  // "GRL1"
+    /** Length of the lookup file header: magic and covered records. */
+    private static final int LOOKUP_HEADER = 2 * Integer.BYTES;
+    /** Number of records past the lookup file that triggers a rewrite. */
+    private static final int LOOKUP_LIMIT = 1024;
+    /** Length of the graph file header. */
+    private static final int HEADER = Integer.BYTES;
+    /** Length of one commit record. */
+    private static final int RECORD = ObjectHash.ID_BYTES + 3 * Integer.BYTES + 2 * Long.BYTES;
+    /** Offsets of the fields within a record. */
+    private static final int PARENT = ObjectHash.ID_BYTES;
+    private static final int SECOND_PARENT = PARENT + Integer.BYTES;
+    private static final int TIMESTAMP = SECOND_PARENT + Integer.BYTES;
+    private static final int GENERATION = TIMESTAMP + Long.BYTES;
+    private static final int MESSAGE = GENERATION + Integer.BYTES;
+
+    /** The graph of the local repository, opened on first use. */
+    private static CommitGraph graph;
+
+    /** The mapped graph file, covering `mappedRecords` records. */
+    private ByteBuffer records;
+    /** Number of records covered by the current mapping. */
+    private int mappedRecords;
+    /** The mapped message file. */
+    private ByteBuffer messages;
+    /** The mapped lookup file, or null if it was not mapped since the records were counted. */
+    private ByteBuffer lookup;
+    /** The sorted IDs in the lookup file. */
+    private FanoutTable lookupIDs;
+    /** Number of records in the graph. */
+    private int size;
+    /** Map from commit ID to record index, only built for bulk additions. */
+    private Map<String, Integer> positions;
+    /** The identity of the graph file that was counted, or null if there was none. */
+    private Object fileKey;
+
+    /**
+     * Open the graph of the local repository, opening it again if the graph file was
+     * replaced since, as `gc` does when it deletes commits.
+     * Repositories created before the graph existed get one built from all their commits.
+     */
+    public static CommitGraph open() {
+        if (graph != null && !Objects.equals(graph.fileKey, currentFileKey())) {
+            graph = null;
+        }
+        if (graph == null) {
+            boolean exists = GRAPH_FILE.exists();
+            graph = new CommitGraph();
+            if (!exists) {
+                graph.addAll(Commit.readAllCommits());
+            } else if (graph.size - graph.covered() >= LOOKUP_LIMIT) {
+                graph.append(List.of());  // written before the lookup file existed
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * Forget the graph of this process, so that the next use opens the file again.
+     */
+    public static void close() {
+        graph = null;
+    }
+
+    /**
+     * Build the graph again from the commits that exist now, as needed after commits were
+     * deleted.
+     */
+    public static void rebuild() {
+        GRAPH_FILE.delete();
+        MESSAGE_FILE.delete();
+        LOOKUP_FILE.delete();
+        graph = null;
+        open();
+    }
+
+    /**
+     * Count the records of the existing graph file, ignoring a partially written last record.
+     * The files are mapped on first access.
+     */
+    private CommitGraph() {
+        this.fileKey = currentFileKey();
+        this.size = count(GRAPH_FILE.exists() ? GRAPH_FILE.length() : HEADER);
+    }
+
+    /**
+     * @return the number of whole records in a graph file of the given LENGTH.
+     */
+    private static int count(long length) {
+        return (int) ((Math.max(length, HEADER) - HEADER) / RECORD);
+    }
+
+    /**
+     * @return the identity of the graph file on disk, or null if there is none.
+     */
+    private static Object currentFileKey() {
+        try {
+            return Files.readAttributes(GRAPH_FILE.toPath(), BasicFileAttributes.class).fileKey();
+        } catch (NoSuchFileException excp) {
+            return null;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * @return the number of commits in the graph.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the record index of the commit, adding it and its missing ancestors
+     * to the graph if needed, as happens after commits were copied in by a remote push.
+     */
+    public int indexOf(String commitID) {
+        int index = find(commitID);
+        return (index != NONE) ? index : add(Commit.readCommit(commitID));
+    }
+
+    /**
+     * @return the record index of the commit, or NONE if it is not in the graph.
+     * The records covered by the lookup file are binary searched there, and the newer ones
+     * are scanned from the end.
+     */
+    public int find(String commitID) {
+        if (positions != null) {
+            return positions.getOrDefault(commitID, NONE);
+        }
+        if (commitID.length() != ObjectHash.ID_LENGTH) {
+            return NONE;
+        }
+        byte[] id = hexToBytes(commitID);
+        int covered = covered();
+        if (covered > 0) {
+            int position = lookupIDs.find(id);
+            if (position >= 0) {
+                int index = lookup.getInt(lookupIDs.end() + position * Integer.BYTES);
+                if (index < size && idEquals(index, id)) {
+                    return index;
+                }
+                covered = 0;  // left from a graph that was rebuilt since; scan everything
+            }
+        }
+        for (int i = size - 1; i >= covered; i -= 1) {
+            if (idEquals(i, id)) {
+                return i;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * @return the ID of the commit at INDEX.
+     */
+    public String id(int index) {
+        return bytesToHex(rawID(index));
+    }
+
+    /**
+     * @return the index of the first parent of the commit at INDEX, or NONE.
+     */
+    public int parent(int index) {
+        return recordsFor(index).getInt(HEADER + index * RECORD + PARENT);
+    }
+
+    /**
+     * @return the index of the second parent of the commit at INDEX, or NONE.
+     */
+    public int secondParent(int index) {
+        return recordsFor(index).getInt(HEADER + index * RECORD + SECOND_PARENT);
+    }
+
+    /**
+     * @return the timestamp in milliseconds of the commit at INDEX.
+     */
+    public long timestamp(int index) {
+        return recordsFor(index).getLong(HEADER + index * RECORD + TIMESTAMP);
+    }
+
+    /**
+     * @return the generation number of the commit at INDEX, or 0 for NONE.
+     */
+    public int generation(int index) {
+        if (index == NONE) {
+            return 0;
+        }
+        return recordsFor(index).getInt(HEADER + index * RECORD + GENERATION);
+    }
+
+    /**
+     * @return the message of the commit at INDEX.
+     */
+    public String message(int index) {
+        long offset = recordsFor(index).getLong(HEADER + index * RECORD + MESSAGE);
+        if (messages == null || offset + Integer.BYTES > messages.limit()) {
+            messages = mapFile(MESSAGE_FILE);
+        }
+        int length = messages.getInt((int) offset);
+        byte[] bytes = new byte[length];
+        ByteBuffer view = messages.duplicate();
+        view.position((int) offset + Integer.BYTES);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return true if the commit at ANCESTOR is DESCENDANT itself or one of its ancestors.
+     * The walk never goes below the generation of ANCESTOR, since no commit of a lower
+     * generation can lead back up to it.
+     */
+    public boolean isAncestor(int ancestor, int descendant) {
+        int floor = generation(ancestor);
+        Set<Integer> visited = new HashSet<>();
+        Deque<Integer> pending = new ArrayDeque<>();
+        pending.push(descendant);
+        while (!pending.isEmpty()) {
+            int next = pending.pop();
+            if (next == ancestor) {
+                return true;
+            }
+            for (int parent : new int[] {parent(next), secondParent(next)}) {
+                if (parent != NONE && generation(parent) >= floor && visited.add(parent)) {
+                    pending.push(parent);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the `log` entry of the commit at INDEX, as Commit.toString() formats it.
+     */
+    public String logEntry(int index) {
+        return Commit.logEntry(id(index), timestamp(index), message(index));
+    }
+
+    /**
+     * Add every commit in COMMITIDS that is not in the graph yet, such as commits copied in
+     * by a remote push. The graph never holds commits outside the commit store, so it is
+     * complete when it holds as many commits as the store.
+     */
+    public void addAll(List<String> commitIDs) {
+        if (commitIDs.size() > size) {
+            append(commitIDs);
+        }
+    }
+
+    /**
+     * Add a commit to the graph, together with any of its ancestors that are missing.
+     * @return the index of the commit.
+     */
+    public int add(Commit commit) {
+        if (find(commit.hashValue()) == NONE) {
+            append(List.of(commit.hashValue()));
+        }
+        return find(commit.hashValue());
+    }
+
+    /**
+     * Add the commits in COMMITIDS that are missing from the graph, holding the lock on the
+     * graph file. Once the lock is held, the records are counted and mapped again, so that
+     * commits appended by other processes meanwhile are found and never overwritten.
+     * Lookups go through a map of all records when more than one commit is added.
+     */
+    private void append(List<String> commitIDs) {
+        try (FileChannel graphOut = openForAppend(GRAPH_FILE);
+             FileChannel messageOut = openForAppend(MESSAGE_FILE)) {
+            graphOut.lock();  // released when the channel is closed
+            fileKey = currentFileKey();
+            size = count(graphOut.size());
+            mappedRecords = 0;
+            lookup = null;
+            if (graphOut.size() < HEADER) {
+                graphOut.write(ByteBuffer.allocate(HEADER).putInt(MAGIC).flip(), 0);
+            }
+            if (commitIDs.size() > 1) {
+                positions = new HashMap<>();
+                for (int i = 0; i < size; i += 1) {
+                    positions.put(id(i), i);
+                }
+            }
+            for (String commitID : commitIDs) {
+                if (find(commitID) == NONE) {
+                    addWithAncestors(Commit.readCommit(commitID), graphOut, messageOut);
+                }
+            }
+            if (size - covered() >= LOOKUP_LIMIT) {
+                writeLookup();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            positions = null;
+        }
+    }
+
+    /**
+     * Append a commit missing from the graph, together with any of its ancestors that are
+     * missing. Ancestors are read from the commit store and added first, without recursion,
+     * so arbitrarily long histories can be added at once.
+     */
+    private void addWithAncestors(Commit commit, FileChannel graphOut, FileChannel messageOut)
+            throws IOException {
+        Deque<Commit> pending = new ArrayDeque<>();
+        pending.push(commit);
+        while (!pending.isEmpty()) {
+            Commit next = pending.peek();
+            if (find(next.hashValue()) != NONE) {
+                pending.pop();
+                continue;
+            }
+            int parent = parentIndex(next.parentCommit(), pending);
+            int secondParent = parentIndex(next.secondParentCommit(), pending);
+            if (pending.peek() == next) {
+                pending.pop();
+                append(next, parent, secondParent, graphOut, messageOut);
+            }
+        }
+    }
+
+    /**
+     * @return the index of a parent commit. If the parent is not in the graph yet,
+     * push it onto PENDING to be added first.
+     */
+    private int parentIndex(String parentID, Deque<Commit> pending) {
+        if (parentID.isEmpty()) {
+            return NONE;
+        }
+        int index = find(parentID);
+        if (index == NONE) {
+            pending.push(Commit.readCommit(parentID));
+        }
+        return index;
+    }
+
+    /**
+     * Write the record and message of a commit whose parents are already in the graph.
+     */
+    private void append(Commit commit, int parent, int secondParent,
+                        FileChannel graphOut, FileChannel messageOut) throws IOException {
+        byte[] message = commit.commitMessage().getBytes(StandardCharsets.UTF_8);
+        long messageOffset = messageOut.size();
+        ByteBuffer messageRecord = ByteBuffer.allocate(Integer.BYTES + message.length);
+        messageRecord.putInt(message.length).put(message).flip();
+        messageOut.write(messageRecord, messageOffset);
+
+        int generation = 1 + Math.max(generation(parent), generation(secondParent));
+        ByteBuffer record = ByteBuffer.allocate(RECORD);
+        record.put(hexToBytes(commit.hashValue()));
+        record.putInt(parent).putInt(secondParent);
+        record.putLong(commit.timestamp().getTime());
+        record.putInt(generation).putLong(messageOffset).flip();
+        graphOut.write(record, HEADER + (long) size * RECORD);
+
+        if (positions != null) {
+            positions.put(commit.hashValue(), size);
+        }
+        size += 1;
+    }
+
+    /**
+     * @return the number of records covered by the lookup file, mapping it on first use,
+     * or 0 if there is none or it covers more records than the graph has.
+     */
+    private int covered() {
+        if (lookup == null) {
+            if (!LOOKUP_FILE.isFile() || LOOKUP_FILE.length() < LOOKUP_HEADER) {
+                return 0;
+            }
+            lookup = mapFile(LOOKUP_FILE);
+            lookupIDs = new FanoutTable(lookup, LOOKUP_HEADER, ObjectHash.ID_BYTES);
+        }
+        int covered = lookup.getInt(Integer.BYTES);
+        return (lookup.getInt(0) == LOOKUP_MAGIC && covered <= size) ? covered : 0;
+    }
+
+    /**
+     * Rewrite the lookup file to cover every record. Called with the graph file locked.
+     */
+    private void writeLookup() throws IOException {
+        byte[][] ids = new byte[size][];
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i += 1) {
+            ids[i] = rawID(i);
+            order[i] = i;
+        }
+        Arrays.sort(order, (x, y) -> Arrays.compareUnsigned(ids[x], ids[y]));
+        File temp = File.createTempFile("commit-graph-lookup", ".tmp", GITLET_DIR);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temp.toPath())))) {
+            out.writeInt(LOOKUP_MAGIC);
+            out.writeInt(size);
+            FanoutTable.write(out, Arrays.stream(order).map(i -> ids[i])
+                                         .collect(Collectors.toList()));
+            for (int index : order) {
+                out.writeInt(index);
+            }
+        }
+        Files.move(temp.toPath(), LOOKUP_FILE.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                   StandardCopyOption.REPLACE_EXISTING);
+        lookup = null;
+    }
+
+    /**
+     * @return the raw ID of the commit at INDEX.
+     */
+    private byte[] rawID(int index) {
+        byte[] id = new byte[ObjectHash.ID_BYTES];
+        ByteBuffer view = recordsFor(index).duplicate();
+        view.position(HEADER + index * RECORD);
+        view.get(id);
+        return id;
+    }
+
+    /**
+     * @return true if the record at INDEX has the given raw ID.
+     */
+    private boolean idEquals(int index, byte[] id) {
+        ByteBuffer buffer = recordsFor(index);
+        int pos = HEADER + index * RECORD;
+        for (int i = 0; i < ObjectHash.ID_BYTES; i += 1) {
+            if (buffer.get(pos + i) != id[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return a mapping of the graph file that covers the record at INDEX,
+     * mapping the file again if records were appended since.
+     */
+    private ByteBuffer recordsFor(int index) {
+        if (index >= mappedRecords) {
+            records = mapFile(GRAPH_FILE);
+            mappedRecords = (records.limit() - HEADER) / RECORD;
+        }
+        return records;
+    }
+
+    /**
+     * Open FILE for appending records at explicit positions, creating it if needed.
+     */
+    private static FileChannel openForAppend(File file) throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                StandardOpenOption.WRITE);
+    }
+}
@@ -0,0 +1,159 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+import static gitlet.Repository.GITLET_DIR;
+import static gitlet.Utils.*;
+
+/**
+ * A persistent sorted index of all commit IDs, used to resolve abbreviated IDs.
+ * The index file holds the IDs in sorted order behind a 256-entry fan-out table, so the
+ * commits sharing a prefix are found by binary search. New commits are appended to a small
+ * unsorted log next to it, which is merged into the index once it grows past LOG_LIMIT entries.
+ *
+ * Both files are derived from the commits and written outside the {@link Journal}: the index
+ * is replaced by an atomic rename, and a log entry left partly written by a process that died
+ * is ignored when reading and overwritten by the next commit. A commit missing from them
+ * because its command died is added when the journal is applied again, and `reindex`
+ * rebuilds both from the commits.
+ */
+public class CommitIndex {
+    /** The sorted commit index under the .gitlet directory. */
+    public static final File INDEX_FILE = join(GITLET_DIR, "commit-index");
+    /** Commits added since the index was last rewritten, as raw IDs. */
+    public static final File LOG_FILE = join(GITLET_DIR, "commit-index.log");
+
+    /** Magic number at the start of the index file. */
+    private static final int MAGIC = 0x43494431;  // "CID1"
+    /** Number of logged commits that triggers a rewrite of the index. */
+    private static final int LOG_LIMIT = 1024;
+
+    /**
+     * Record a newly saved commit. Repositories without an index get one built first.
+     * The index and its log are changed holding the lock of the index, so that commands
+     * committing at the same time neither interleave their entries nor lose them to a merge.
+     */
+    public static void add(String commitID) {
+        Locks.whileHolding(INDEX_FILE, () -> {
+            if (!INDEX_FILE.exists()) {
+                rebuild(Commit.readAllCommits());
+                return;
+            }
+            try (FileChannel log = FileChannel.open(LOG_FILE.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE)) {
+                // an entry left partly written by a process that died is overwritten
+                long end = log.size() - log.size() % ObjectHash.ID_BYTES;
+                log.truncate(end);
+                log.write(ByteBuffer.wrap(hexToBytes(commitID)), end);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            if (LOG_FILE.length() >= (long) LOG_LIMIT * ObjectHash.ID_BYTES) {
+                merge();
+            }
+        });
+    }
+
+    /**
+     * @return the IDs of all commits starting with PREFIX, in sorted order.
+     * @param prefix an abbreviated commit ID in lower-case hexadecimal.
+     */
+    public static List<String> findPrefix(String prefix) {
+        if (!prefix.matches("[0-9a-f]{1," + ObjectHash.ID_LENGTH + "}")) {
+            return new ArrayList<>();
+        }
+        if (!INDEX_FILE.exists()) {
+            rebuild(Commit.readAllCommits());
+        }
+        TreeSet<String> matches = new TreeSet<>();
+        ByteBuffer index = mapFile(INDEX_FILE);
+        FanoutTable ids = new FanoutTable(index, Integer.BYTES, ObjectHash.ID_BYTES);
+        int from = ids.lowerBound(pad(prefix, '0'));
+        int to = ids.upperBound(pad(prefix, 'f'));
+        for (int i = from; i < to; i += 1) {
+            matches.add(bytesToHex(ids.idAt(i)));
+        }
+        for (String logged : readLog()) {
+            if (logged.startsWith(prefix)) {
+                matches.add(logged);
+            }
+        }
+        return new ArrayList<>(matches);
+    }
+
+    /**
+     * Rewrite the index with the given commits, and empty the log.
+     */
+    public static void rebuild(List<String> commitIDs) {
+        TreeSet<String> sorted = new TreeSet<>(commitIDs);
+        List<byte[]> ids = new ArrayList<>(sorted.size());
+        for (String id : sorted) {
+            ids.add(hexToBytes(id));
+        }
+        Locks.whileHolding(INDEX_FILE, () -> {
+            try {
+                File temp = File.createTempFile("commit-index", ".tmp", GITLET_DIR);
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        Files.newOutputStream(temp.toPath())))) {
+                    out.writeInt(MAGIC);
+                    FanoutTable.write(out, ids);
+                }
+                Files.move(temp.toPath(), INDEX_FILE.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                           StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            LOG_FILE.delete();
+        });
+    }
+
+    /**
+     * Fold the logged commits into the sorted index. Called holding the lock of the index.
+     */
+    private static void merge() {
+        List<String> all = new ArrayList<>(readLog());
+        FanoutTable ids = new FanoutTable(mapFile(INDEX_FILE), Integer.BYTES, ObjectHash.ID_BYTES);
+        for (int i = 0; i < ids.size(); i += 1) {
+            all.add(bytesToHex(ids.idAt(i)));
+        }
+        rebuild(all);
+    }
+
+    /**
+     * @return the commit IDs in the log, ignoring a partially written last entry.
+     */
+    private static List<String> readLog() {
+        List<String> logged = new ArrayList<>();
+        if (!LOG_FILE.exists()) {
+            return logged;
+        }
+        byte[] log = readContents(LOG_FILE);
+        for (int pos = 0; pos + ObjectHash.ID_BYTES <= log.length; pos += ObjectHash.ID_BYTES) {
+            logged.add(bytesToHex(Arrays.copyOfRange(log, pos, pos + ObjectHash.ID_BYTES)));
+        }
+        return logged;
+    }
+
+    /**
+     * @return the raw ID formed by PREFIX padded to full length with the digit FILL.
+     */
+    private static byte[] pad(String prefix, char fill) {
+        StringBuilder padded = new StringBuilder(prefix);
+        while (padded.length() < ObjectHash.ID_LENGTH) {
+            padded.append(fill);
+        }
+        return hexToBytes(padded.toString());
+    }
+}
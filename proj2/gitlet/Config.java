@@ -0,0 +1,141 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static gitlet.Repository.GITLET_DIR;
+import static gitlet.Utils.*;
+
+/**
+ * Per-repository settings, saved as `key = value` lines in the config file.
+ * Only the keys listed in DEFAULTS are recognized; unset keys take their default value.
+ */
+public class Config {
+    /** The config file under the .gitlet directory. */
+    public static final File CONFIG_FILE = join(GITLET_DIR, "config");
+
+    /** Deflate level of stored blobs: -1 for the zlib default, 0 for none, up to 9. */
+    public static final String COMPRESSION = "core.compression";
+    /** Size in megabytes above which files are streamed instead of read into memory whole. */
+    public static final String STREAM_THRESHOLD = "core.streamThreshold";
+    /** Longest chain of deltas a blob may be rebuilt through; 0 disables deltas. */
+    public static final String DELTA_DEPTH = "delta.depth";
+    /** Whether fetch and push report the number of objects and bytes they sent. */
+    public static final String TRANSFER_REPORT = "transfer.report";
+    /** Least similarity in percent of a deleted and an added file that merge takes as a rename. */
+    public static final String RENAME_THRESHOLD = "merge.renameThreshold";
+    /** Days for which gc keeps the commits recorded in reflogs. */
+    public static final String REFLOG_EXPIRE = "gc.reflogExpire";
+    /** Seconds for which gc keeps unreachable objects after they were last saved or used. */
+    public static final String PRUNE_EXPIRE = "gc.pruneExpire";
+
+    /** Every recognized key and its default value. */
+    private static final Map<String, String> DEFAULTS = new TreeMap<>(Map.of(
+            COMPRESSION, "-1",
+            DELTA_DEPTH, "10",
+            PRUNE_EXPIRE, "3600",
+            REFLOG_EXPIRE, "30",
+            RENAME_THRESHOLD, "50",
+            STREAM_THRESHOLD, "128",
+            TRANSFER_REPORT, "false"
+    ));
+
+    /** The settings read from the config file, loaded on first use. */
+    private static Map<String, String> settings;
+
+    /**
+     * Handle the `config [key]` and `config [key] [value]` commands.
+     * With a key only, print its current value; otherwise save the new value.
+     */
+    public static void config(String[] args) {
+        if (args.length != 2 && args.length != 3) {
+            exitWithError("Incorrect operands.");
+        }
+        String key = args[1];
+        if (!DEFAULTS.containsKey(key)) {
+            exitWithError("No config key with that name exists.");
+        }
+        if (args.length == 2) {
+            message(get(key));
+            return;
+        }
+        validateValue(key, args[2]);
+        Map<String, String> current = load();
+        current.put(key, args[2]);
+        writeSettings(CONFIG_FILE, current);
+    }
+
+    /**
+     * @return the value of the given key, or its default if it is not set.
+     */
+    public static String get(String key) {
+        return load().getOrDefault(key, DEFAULTS.get(key));
+    }
+
+    /**
+     * @return the value of the given key as an integer.
+     */
+    public static int getInt(String key) {
+        return Integer.parseInt(get(key));
+    }
+
+    /**
+     * @return the value of the given key as a boolean.
+     */
+    public static boolean getBoolean(String key) {
+        return Boolean.parseBoolean(get(key));
+    }
+
+    /**
+     * Exit with an error message if VALUE is not acceptable for KEY.
+     */
+    private static void validateValue(String key, String value) {
+        if (key.equals(COMPRESSION)) {
+            validateRange(value, -1, 9);
+        } else if (key.equals(DELTA_DEPTH) || key.equals(RENAME_THRESHOLD)) {
+            validateRange(value, 0, 100);
+        } else if (key.equals(STREAM_THRESHOLD)) {
+            validateRange(value, 1, 1024);
+        } else if (key.equals(REFLOG_EXPIRE)) {
+            validateRange(value, 0, 36500);
+        } else if (key.equals(PRUNE_EXPIRE)) {
+            validateRange(value, 0, Integer.MAX_VALUE);
+        } else if (key.equals(TRANSFER_REPORT)
+                   && !value.equals("true") && !value.equals("false")) {
+            exitWithError("Invalid config value.");
+        }
+    }
+
+    /**
+     * Exit with an error message unless VALUE is an integer within [LOW, HIGH].
+     */
+    private static void validateRange(String value, int low, int high) {
+        try {
+            int number = Integer.parseInt(value);
+            if (number >= low && number <= high) {
+                return;
+            }
+        } catch (NumberFormatException excp) {
+            // fall through to the error below
+        }
+        exitWithError("Invalid config value.");
+    }
+
+    /**
+     * Forget the settings read so far, so that the config file is read again on next use.
+     */
+    public static void reload() {
+        settings = null;
+    }
+
+    /**
+     * @return the settings saved in the config file, read once per process.
+     */
+    private static Map<String, String> load() {
+        if (settings == null) {
+            settings = readSettings(CONFIG_FILE);
+        }
+        return settings;
+    }
+}
@@ -0,0 +1,116 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static gitlet.Utils.*;
+
+/**
+ * Computes the blob IDs of working files without loading them whole.
+ * Each file is read through a FileChannel in fixed-size chunks that feed the digest, and
+ * many files are hashed at once on the common fork-join pool. Every worker owns one chunk
+ * buffer, so the bytes in flight never exceed IN_FLIGHT_BUDGET however large the files are.
+ */
+public class ContentHasher {
+    /** Total size of the chunk buffers of all workers. */
+    private static final int IN_FLIGHT_BUDGET = 8 << 20;
+    /** Smallest chunk a worker reads at a time. */
+    private static final int MIN_CHUNK = 64 << 10;
+    /** A batch of at most this many files and SPLIT_BYTES bytes is hashed by one worker. */
+    private static final int SPLIT_FILES = 64;
+    private static final long SPLIT_BYTES = 1 << 20;
+
+    /** Size of the chunk buffer of each worker, counting the thread waiting for the pool. */
+    private static final int CHUNK = Math.max(MIN_CHUNK,
+            IN_FLIGHT_BUDGET / (ForkJoinPool.getCommonPoolParallelism() + 1));
+    /** The chunk buffer of each thread, allocated on first use. */
+    private static final ThreadLocal<ByteBuffer> BUFFERS =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocate(CHUNK));
+
+    /**
+     * @return the blob ID of the content of FILE, the same as `new Blob(file).blobHashValue()`.
+     */
+    public static String hash(File file) {
+        MessageDigest md = ObjectHash.digest();
+        ByteBuffer buffer = BUFFERS.get();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                md.update(buffer);
+                buffer.clear();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytesToHex(md.digest());
+    }
+
+    /**
+     * @return the blob IDs of all FILES, in the same order, hashed in parallel.
+     */
+    public static String[] hashAll(List<File> files) {
+        String[] ids = new String[files.size()];
+        long[] sizes = new long[files.size()];
+        for (int i = 0; i < sizes.length; i += 1) {
+            sizes[i] = files.get(i).length();
+        }
+        HashTask task = new HashTask(files, sizes, ids, 0, ids.length);
+        if (ids.length < 2) {
+            task.compute();
+        } else {
+            ForkJoinPool.commonPool().invoke(task);
+        }
+        return ids;
+    }
+
+    /**
+     * Hashes a range of files, splitting it in half while it holds enough work to share.
+     */
+    private static class HashTask extends RecursiveAction {
+        /** Tasks are never serialized; declared because every ForkJoinTask is Serializable. */
+        private static final long serialVersionUID = 1L;
+
+        /** All files to hash. */
+        private final List<File> files;
+        /** The sizes of FILES, used to decide whether a range is worth splitting. */
+        private final long[] sizes;
+        /** Where the blob IDs of FILES are stored. */
+        private final String[] ids;
+        /** The range [from, to) of files this task hashes. */
+        private final int from;
+        private final int to;
+
+        HashTask(List<File> files, long[] sizes, String[] ids, int from, int to) {
+            this.files = files;
+            this.sizes = sizes;
+            this.ids = ids;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            long total = 0;
+            for (int i = from; i < to; i += 1) {
+                total += sizes[i];
+            }
+            if (to - from < 2 || (to - from <= SPLIT_FILES && total < SPLIT_BYTES)) {
+                for (int i = from; i < to; i += 1) {
+                    ids[i] = hash(files.get(i));
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new HashTask(files, sizes, ids, from, mid),
+                      new HashTask(files, sizes, ids, mid, to));
+        }
+    }
+}
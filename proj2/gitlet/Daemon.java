@@ -0,0 +1,298 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+
+import static gitlet.Repository.GITLET_DIR;
+import static gitlet.Utils.*;
+
+/**
+ * A long-running process that executes the commands of one repository, so that they do not
+ * pay for starting the JVM and loading and compiling its classes again.
+ * `gitlet daemon` serves the repository in the current directory until `gitlet daemon stop`.
+ * While it runs, every other command started in that directory forwards its arguments to
+ * the daemon and prints the output it sends back; when no daemon answers, the command runs
+ * in its own process as usual, so both ways behave the same. A batch read from standard input
+ * is forwarded together with its script.
+ *
+ * Other processes may still change the repository between two commands, such as a command
+ * that found no daemon, or `gc`, so everything a command read from the repository is
+ * forgotten before the next one runs.
+ *
+ * The daemon listens on a loopback port, recorded with a random token in the daemon file;
+ * only clients that can read that file may run commands. Commands run one at a time.
+ * A request is the token, the arguments, and for `batch -` the length-prefixed script;
+ * the reply is a series of frames, each a channel byte and a length-prefixed chunk of output,
+ * ended by an EXIT frame with the exit status.
+ */
+public class Daemon {
+    /** The port and token of the running daemon, under the .gitlet directory. */
+    public static final File DAEMON_FILE = join(GITLET_DIR, "daemon");
+
+    /** Frame of standard output. */
+    private static final int STDOUT = 1;
+    /** Frame of standard error. */
+    private static final int STDERR = 2;
+    /** Last frame of a reply, holding the exit status instead of a length. */
+    private static final int EXIT = 0;
+    /** Size of the output buffered before a frame is sent. */
+    private static final int FRAME_SIZE = 8192;
+    /** Time a client waits for the daemon to accept it. */
+    private static final int CONNECT_TIMEOUT = 1000;
+
+    /** Whether this process is the daemon. */
+    private static boolean serving = false;
+
+    /**
+     * Handle the `daemon` command.
+     * Serve the repository in the current directory until `daemon stop`.
+     */
+    public static void serve() {
+        if (serving) {
+            exitWithError("A daemon is already running for this repository.");
+        }
+        serving = true;
+        String token = newToken();
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            writeDaemonFile(server.getLocalPort() + " " + token + "\n");
+            Runtime.getRuntime().addShutdownHook(new Thread(DAEMON_FILE::delete));
+            boolean running = true;
+            while (running) {
+                try (Socket client = server.accept()) {
+                    running = handle(client, token);
+                } catch (IOException excp) {
+                    // the client went away; keep serving the others
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            DAEMON_FILE.delete();
+            serving = false;
+        }
+    }
+
+    /**
+     * Run the command of one client with its output sent back to it.
+     * @return false if the command stopped the daemon.
+     */
+    private static boolean handle(Socket client, String token) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(client.getOutputStream()));
+        if (!in.readUTF().equals(token)) {
+            return true;
+        }
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = in.readUTF();
+        }
+        byte[] script = new byte[readsScript(args) ? in.readInt() : 0];
+        in.readFully(script);
+        if (args.length == 2 && args[0].equals("daemon") && args[1].equals("stop")) {
+            out.writeByte(EXIT);
+            out.writeInt(0);
+            out.flush();
+            return false;
+        }
+
+        InputStream stdin = System.in;
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        PrintStream framedOut = new PrintStream(new FrameStream(out, STDOUT), false,
+                                                StandardCharsets.UTF_8);
+        PrintStream framedErr = new PrintStream(new FrameStream(out, STDERR), false,
+                                                StandardCharsets.UTF_8);
+        int status = 0;
+        System.setIn(new ByteArrayInputStream(script));
+        System.setOut(framedOut);
+        System.setErr(framedErr);
+        try {
+            forgetChangingState();
+            Main.run(args);
+        } catch (RuntimeException | Error excp) {
+            excp.printStackTrace();
+            status = 1;
+        } finally {
+            framedOut.flush();
+            framedErr.flush();
+            System.setIn(stdin);
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+        out.writeByte(EXIT);
+        out.writeInt(status);
+        out.flush();
+        return true;
+    }
+
+    /**
+     * Drop everything the daemon read from files that may change without it: the config
+     * file, which can be edited by hand, the packs, the commit graph, which other processes
+     * append to and gc rebuilds, and the caches of commits and blobs, which gc may delete.
+     */
+    private static void forgetChangingState() {
+        Config.reload();
+        Pack.closeAll();
+        CommitGraph.close();
+        Commit.clearCache();
+        Blob.clearCache();
+    }
+
+    /**
+     * @return true if the command in ARGS is a batch whose script is read from standard input.
+     */
+    private static boolean readsScript(String[] args) {
+        return args.length == 2 && args[0].equals("batch") && args[1].equals("-");
+    }
+
+    /**
+     * Forward the command in ARGS to the daemon of the repository in the current directory,
+     * printing its output and exiting with its status.
+     * @return false if no daemon is running there, so the command must run in this process.
+     */
+    public static boolean forward(String[] args) {
+        File daemonFile = join(System.getProperty("user.dir"), ".gitlet", DAEMON_FILE.getName());
+        if (serving || args.length == 0 || args[0].equals("init") || args[0].equals("serve")
+                || !daemonFile.isFile()) {
+            return false;
+        }
+        String[] address = readContentsAsString(daemonFile).trim().split(" ");
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                                                 Integer.parseInt(address[0])), CONNECT_TIMEOUT);
+        } catch (IOException | RuntimeException excp) {
+            return false;  // left behind by a daemon that was killed
+        }
+        try (socket) {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream()));
+            out.writeUTF(address[1]);
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            if (readsScript(args)) {
+                byte[] script = System.in.readAllBytes();
+                out.writeInt(script.length);
+                out.write(script);
+            }
+            out.flush();
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream()));
+            byte[] chunk = new byte[FRAME_SIZE];
+            int channel;
+            while ((channel = in.readByte()) != EXIT) {
+                int length = in.readInt();
+                in.readFully(chunk, 0, length);
+                (channel == STDERR ? System.err : System.out).write(chunk, 0, length);
+            }
+            int status = in.readInt();
+            System.out.flush();
+            if (status != 0) {
+                System.exit(status);
+            }
+            return true;
+        } catch (IOException excp) {
+            System.err.println("Lost connection to the gitlet daemon.");
+            System.exit(1);
+            return true;
+        }
+    }
+
+    /**
+     * @return a random token that clients must present.
+     */
+    private static String newToken() {
+        byte[] token = new byte[16];
+        new SecureRandom().nextBytes(token);
+        return bytesToHex(token);
+    }
+
+    /**
+     * Write the daemon file so that only its owner can read it, then move it into place.
+     */
+    private static void writeDaemonFile(String contents) throws IOException {
+        File temp = File.createTempFile("daemon", ".tmp", GITLET_DIR);
+        try {
+            Files.setPosixFilePermissions(temp.toPath(),
+                                          PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException excp) {
+            temp.setReadable(false, false);
+            temp.setReadable(true, true);
+        }
+        writeContents(temp, contents);
+        Files.move(temp.toPath(), DAEMON_FILE.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                   StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Sends what is written to it to the client in frames of one channel.
+     */
+    private static class FrameStream extends OutputStream {
+        /** The connection to the client, shared by both channels. */
+        private final DataOutputStream out;
+        /** The channel of the frames. */
+        private final int channel;
+        /** Output not sent yet. */
+        private final byte[] buffer = new byte[FRAME_SIZE];
+        /** Number of bytes in BUFFER. */
+        private int count = 0;
+
+        FrameStream(DataOutputStream out, int channel) {
+            this.out = out;
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                flush();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    flush();
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (count > 0) {
+                out.writeByte(channel);
+                out.writeInt(count);
+                out.write(buffer, 0, count);
+                count = 0;
+            }
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Binary deltas between two versions of a file.
+ * A delta is a sequence of instructions that rebuild the target from the base:
+ * COPY (offset, length) copies a range of the base, and INSERT (length, bytes) adds new bytes.
+ * Numbers are written as unsigned varints.
+ *
+ * Deltas are found by indexing the base in fixed-size blocks and sliding a rolling hash over
+ * the target; every verified block match is then extended in both directions.
+ */
+public class Delta {
+    /** Instruction tag for inserting literal bytes. */
+    private static final int INSERT = 0;
+    /** Instruction tag for copying a range of the base. */
+    private static final int COPY = 1;
+    /** Size of the blocks of the base that matches are anchored on. */
+    private static final int BLOCK = 16;
+    /** Multiplier of the polynomial rolling hash. */
+    private static final int PRIME = 31;
+    /** PRIME raised to BLOCK - 1, used to drop the oldest byte from the window. */
+    private static final int PRIME_POWER = power(PRIME, BLOCK - 1);
+
+    /**
+     * Compute the delta turning BASE into TARGET.
+     * @return the delta instructions.
+     */
+    public static byte[] compute(byte[] base, byte[] target) {
+        BlockIndex index = new BlockIndex(base);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int insertStart = 0;
+        int pos = 0;
+        int hash = (target.length >= BLOCK) ? hash(target, 0) : 0;
+        while (pos + BLOCK <= target.length) {
+            int candidate = index.get(hash);
+            if (candidate >= 0 && regionEquals(base, candidate, target, pos, BLOCK)) {
+                int start = pos;
+                int baseStart = candidate;
+                while (start > insertStart && baseStart > 0
+                        && target[start - 1] == base[baseStart - 1]) {
+                    start -= 1;
+                    baseStart -= 1;
+                }
+                int end = pos + BLOCK;
+                int baseEnd = candidate + BLOCK;
+                while (end < target.length && baseEnd < base.length
+                        && target[end] == base[baseEnd]) {
+                    end += 1;
+                    baseEnd += 1;
+                }
+                writeInsert(out, target, insertStart, start);
+                out.write(COPY);
+                writeVarint(out, baseStart);
+                writeVarint(out, end - start);
+                pos = end;
+                insertStart = end;
+                if (pos + BLOCK <= target.length) {
+                    hash = hash(target, pos);
+                }
+            } else {
+                if (pos + BLOCK < target.length) {
+                    hash = (hash - target[pos] * PRIME_POWER) * PRIME + target[pos + BLOCK];
+                }
+                pos += 1;
+            }
+        }
+        writeInsert(out, target, insertStart, target.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Rebuild the target from BASE and the delta INSTRUCTIONS.
+     * @param targetLength the expected length of the target.
+     */
+    public static byte[] apply(byte[] base, byte[] instructions, int targetLength) {
+        byte[] target = new byte[targetLength];
+        ByteBuffer in = ByteBuffer.wrap(instructions);
+        int filled = 0;
+        while (in.hasRemaining()) {
+            int tag = in.get();
+            int length;
+            if (tag == COPY) {
+                int offset = readVarint(in);
+                length = readVarint(in);
+                System.arraycopy(base, offset, target, filled, length);
+            } else if (tag == INSERT) {
+                length = readVarint(in);
+                in.get(target, filled, length);
+            } else {
+                throw new IllegalArgumentException("corrupt delta");
+            }
+            filled += length;
+        }
+        if (filled != targetLength) {
+            throw new IllegalArgumentException("corrupt delta");
+        }
+        return target;
+    }
+
+    /**
+     * Write an INSERT instruction for TARGET[FROM, TO), if that range is not empty.
+     */
+    private static void writeInsert(ByteArrayOutputStream out, byte[] target, int from, int to) {
+        if (to > from) {
+            out.write(INSERT);
+            writeVarint(out, to - from);
+            out.write(target, from, to - from);
+        }
+    }
+
+    /**
+     * Write a non-negative number in 7-bit groups, least significant first.
+     */
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Read a number written by writeVarint.
+     */
+    private static int readVarint(ByteBuffer in) {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.get();
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * @return the rolling hash of DATA[FROM, FROM + BLOCK).
+     */
+    private static int hash(byte[] data, int from) {
+        int h = 0;
+        for (int i = from; i < from + BLOCK; i += 1) {
+            h = h * PRIME + data[i];
+        }
+        return h;
+    }
+
+    /**
+     * @return BASE raised to EXPONENT with int overflow, matching the rolling hash.
+     */
+    private static int power(int base, int exponent) {
+        int result = 1;
+        for (int i = 0; i < exponent; i += 1) {
+            result *= base;
+        }
+        return result;
+    }
+
+    /**
+     * @return true if A[AFROM, AFROM + LENGTH) equals B[BFROM, BFROM + LENGTH).
+     */
+    private static boolean regionEquals(byte[] a, int aFrom, byte[] b, int bFrom, int length) {
+        for (int i = 0; i < length; i += 1) {
+            if (a[aFrom + i] != b[bFrom + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * An open-addressing table from block hashes to the first offset in the base
+     * with that hash. Keeps primitive arrays only, since a large base has millions of blocks.
+     */
+    private static class BlockIndex {
+        /** Hash of each occupied slot. */
+        private final int[] hashes;
+        /** Base offset plus one of each slot; zero marks an empty slot. */
+        private final int[] offsets;
+        /** Capacity minus one, used to mask hashes into slots. */
+        private final int mask;
+
+        BlockIndex(byte[] base) {
+            int blocks = base.length / BLOCK;
+            int capacity = Integer.highestOneBit(Math.max(blocks, 1) * 2 - 1) << 1;
+            hashes = new int[capacity];
+            offsets = new int[capacity];
+            mask = capacity - 1;
+            for (int offset = 0; offset + BLOCK <= base.length; offset += BLOCK) {
+                put(hash(base, offset), offset);
+            }
+        }
+
+        /**
+         * Record OFFSET for HASH unless an earlier block has the same hash.
+         */
+        void put(int hash, int offset) {
+            int slot = spread(hash) & mask;
+            while (offsets[slot] != 0) {
+                if (hashes[slot] == hash) {
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            hashes[slot] = hash;
+            offsets[slot] = offset + 1;
+        }
+
+        /**
+         * @return the base offset of a block with the given hash, or -1 if there is none.
+         */
+        int get(int hash) {
+            int slot = spread(hash) & mask;
+            while (offsets[slot] != 0) {
+                if (hashes[slot] == hash) {
+                    return offsets[slot] - 1;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        /**
+         * Mix the high bits of a hash into the low bits used as the slot.
+         */
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16) ^ (hash >>> 7);
+        }
+    }
+}
@@ -0,0 +1,386 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Line diffs between two versions of a text. Lines are first replaced by small integers,
+ * equal lines by equal numbers, so that lines are compared in constant time. Common leading
+ * and trailing lines are skipped; what remains is compared with Myers' O(ND) algorithm in its
+ * linear-space form, which finds the middle snake of a shortest edit script by searching from
+ * both ends at once and recurses on both halves, so memory stays linear in the input.
+ *
+ * Large regions are first split with the histogram heuristic: the line that occurs least often
+ * in the old region, and at least once in the new one, is taken as an anchor, the match around
+ * it is extended, and both sides of the match are diffed on their own. Anchoring on rare lines
+ * keeps Myers' searches small on long files and tends to pair up lines a reader would pair up.
+ */
+public class Diff {
+    /** Regions with more lines than this on both sides together are split by the histogram. */
+    private static final int HISTOGRAM_MIN = 256;
+    /** Lines occurring more often than this in the old region are never histogram anchors. */
+    private static final int MAX_OCCURRENCES = 64;
+
+    /** The lines of the old version, as numbers. */
+    private final int[] a;
+    /** The lines of the new version, as numbers. */
+    private final int[] b;
+    /** Whether each line of the old version is deleted. */
+    private final boolean[] deleted;
+    /** Whether each line of the new version is inserted. */
+    private final boolean[] inserted;
+    /** Furthest x reached on each diagonal by the forward search, offset by DIAGONAL_OFFSET. */
+    private final int[] forward;
+    /** Furthest x reached on each diagonal by the backward search, offset by DIAGONAL_OFFSET. */
+    private final int[] backward;
+    /** Index of diagonal 0 in FORWARD and BACKWARD. */
+    private final int diagonalOffset;
+    /** Scratch count of each line number in a region of the old version. */
+    private final int[] counts;
+
+    /**
+     * A change replacing the lines [aStart, aEnd) of the old version by the lines
+     * [bStart, bEnd) of the new one. One of the ranges may be empty.
+     */
+    public static class Edit {
+        /** First changed line of the old version. */
+        public final int aStart;
+        /** End of the changed lines of the old version. */
+        public final int aEnd;
+        /** First changed line of the new version. */
+        public final int bStart;
+        /** End of the changed lines of the new version. */
+        public final int bEnd;
+
+        Edit(int aStart, int aEnd, int bStart, int bEnd) {
+            this.aStart = aStart;
+            this.aEnd = aEnd;
+            this.bStart = bStart;
+            this.bEnd = bEnd;
+        }
+    }
+
+    private Diff(int[] a, int[] b, int distinct) {
+        this.a = a;
+        this.b = b;
+        this.deleted = new boolean[a.length];
+        this.inserted = new boolean[b.length];
+        this.diagonalOffset = b.length + 1;
+        this.forward = new int[a.length + b.length + 3];
+        this.backward = new int[a.length + b.length + 3];
+        this.counts = new int[distinct];
+    }
+
+    /**
+     * @return the lines of TEXT, each with its line terminator; the last line has none if
+     * TEXT does not end with a newline.
+     */
+    public static List<String> lines(String text) {
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < text.length(); i += 1) {
+            if (text.charAt(i) == '\n') {
+                lines.add(text.substring(start, i + 1));
+                start = i + 1;
+            }
+        }
+        if (start < text.length()) {
+            lines.add(text.substring(start));
+        }
+        return lines;
+    }
+
+    /**
+     * @return the edits turning the lines OLD LINES into NEW LINES, in order, separated by
+     * at least one unchanged line.
+     */
+    public static List<Edit> diff(List<String> oldLines, List<String> newLines) {
+        Map<String, Integer> numbers = new HashMap<>();
+        int[] a = number(oldLines, numbers);
+        int[] b = number(newLines, numbers);
+        Diff diff = new Diff(a, b, numbers.size());
+        diff.compare(0, a.length, 0, b.length);
+        return diff.edits();
+    }
+
+    /**
+     * @return LINES with each line replaced by its number in NUMBERS, adding new lines.
+     */
+    private static int[] number(List<String> lines, Map<String, Integer> numbers) {
+        int[] result = new int[lines.size()];
+        for (int i = 0; i < result.length; i += 1) {
+            Integer n = numbers.putIfAbsent(lines.get(i), numbers.size());
+            result[i] = (n == null) ? numbers.size() - 1 : n;
+        }
+        return result;
+    }
+
+    /**
+     * Mark the lines of a[aLo, aHi) and b[bLo, bHi) that are not part of a longest
+     * common subsequence of the two. Each split recurses on its smaller part and loops on
+     * the larger one, so the recursion stays shallow however unbalanced the splits are.
+     */
+    private void compare(int aLo, int aHi, int bLo, int bHi) {
+        while (true) {
+            while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+                aLo += 1;
+                bLo += 1;
+            }
+            while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+                aHi -= 1;
+                bHi -= 1;
+            }
+            if (aLo == aHi || bLo == bHi) {
+                Arrays.fill(deleted, aLo, aHi, true);
+                Arrays.fill(inserted, bLo, bHi, true);
+                return;
+            }
+            int[] split = null;
+            if (aHi - aLo + bHi - bLo > HISTOGRAM_MIN) {
+                split = splitAtRareLine(aLo, aHi, bLo, bHi);
+            }
+            if (split == null) {
+                split = middleSnake(aLo, aHi, bLo, bHi);
+            } else if (split.length == 0) {
+                Arrays.fill(deleted, aLo, aHi, true);
+                Arrays.fill(inserted, bLo, bHi, true);
+                return;
+            }
+            if (split[0] - aLo + split[1] - bLo < aHi - split[2] + bHi - split[3]) {
+                compare(aLo, split[0], bLo, split[1]);
+                aLo = split[2];
+                bLo = split[3];
+            } else {
+                compare(split[2], aHi, split[3], bHi);
+                aHi = split[0];
+                bHi = split[1];
+            }
+        }
+    }
+
+    /**
+     * Find the longest match around a line that is rare in a[aLo, aHi) and also occurs in
+     * b[bLo, bHi). The ends of both regions must differ.
+     * @return the start of the match in A and B followed by its end in A and B, an empty
+     * array if the regions have no line in common, or null if every common line is too
+     * frequent to anchor on.
+     */
+    private int[] splitAtRareLine(int aLo, int aHi, int bLo, int bHi) {
+        for (int i = aLo; i < aHi; i += 1) {
+            counts[a[i]] += 1;
+        }
+        int anchor = -1;
+        int fewest = MAX_OCCURRENCES + 1;
+        boolean common = false;
+        for (int j = bLo; j < bHi; j += 1) {
+            int count = counts[b[j]];
+            if (count > 0) {
+                common = true;
+                if (count < fewest) {
+                    fewest = count;
+                    anchor = j;
+                }
+            }
+        }
+        for (int i = aLo; i < aHi; i += 1) {
+            counts[a[i]] = 0;
+        }
+        if (!common) {
+            return new int[0];
+        }
+        if (anchor < 0) {
+            return null;
+        }
+
+        int[] best = null;
+        for (int i = aLo; i < aHi; i += 1) {
+            if (a[i] != b[anchor]) {
+                continue;
+            }
+            int start = i;
+            int j = anchor;
+            while (start > aLo && j > bLo && a[start - 1] == b[j - 1]) {
+                start -= 1;
+                j -= 1;
+            }
+            int end = i + 1;
+            int k = anchor + 1;
+            while (end < aHi && k < bHi && a[end] == b[k]) {
+                end += 1;
+                k += 1;
+            }
+            if (best == null || end - start > best[2] - best[0]) {
+                best = new int[] {start, j, end, k};
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Find a point on a shortest edit script from (aLo, bLo) to (aHi, bHi) that splits it in
+     * two halves of nearly equal cost, searching forward from the start and backward from the
+     * end until the two searches meet. The ends of both regions must differ.
+     * @return the x and y of that point, twice, as an empty match to split at.
+     */
+    private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+        int[] fd = forward;
+        int[] bd = backward;
+        int off = diagonalOffset;
+        int dmin = aLo - bHi;
+        int dmax = aHi - bLo;
+        int fmid = aLo - bLo;
+        int bmid = aHi - bHi;
+        boolean odd = ((fmid - bmid) & 1) != 0;
+        int fmin = fmid;
+        int fmax = fmid;
+        int bmin = bmid;
+        int bmax = bmid;
+        fd[off + fmid] = aLo;
+        bd[off + bmid] = aHi;
+
+        while (true) {
+            // extend the forward search by one edit
+            if (fmin > dmin) {
+                fd[off + --fmin - 1] = -1;
+            } else {
+                fmin += 1;
+            }
+            if (fmax < dmax) {
+                fd[off + ++fmax + 1] = -1;
+            } else {
+                fmax -= 1;
+            }
+            for (int d = fmax; d >= fmin; d -= 2) {
+                int low = fd[off + d - 1];
+                int high = fd[off + d + 1];
+                int x = (low >= high) ? low + 1 : high;
+                int y = x - d;
+                while (x < aHi && y < bHi && a[x] == b[y]) {
+                    x += 1;
+                    y += 1;
+                }
+                fd[off + d] = x;
+                if (odd && bmin <= d && d <= bmax && bd[off + d] <= x) {
+                    return new int[] {x, y, x, y};
+                }
+            }
+
+            // extend the backward search by one edit
+            if (bmin > dmin) {
+                bd[off + --bmin - 1] = Integer.MAX_VALUE;
+            } else {
+                bmin += 1;
+            }
+            if (bmax < dmax) {
+                bd[off + ++bmax + 1] = Integer.MAX_VALUE;
+            } else {
+                bmax -= 1;
+            }
+            for (int d = bmax; d >= bmin; d -= 2) {
+                int low = bd[off + d - 1];
+                int high = bd[off + d + 1];
+                int x = (low < high) ? low : high - 1;
+                int y = x - d;
+                while (x > aLo && y > bLo && a[x - 1] == b[y - 1]) {
+                    x -= 1;
+                    y -= 1;
+                }
+                bd[off + d] = x;
+                if (!odd && fmin <= d && d <= fmax && x <= fd[off + d]) {
+                    return new int[] {x, y, x, y};
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the marked lines grouped into edits.
+     */
+    private List<Edit> edits() {
+        List<Edit> edits = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            if (i < a.length && j < b.length && !deleted[i] && !inserted[j]) {
+                i += 1;
+                j += 1;
+                continue;
+            }
+            int aStart = i;
+            int bStart = j;
+            while (i < a.length && deleted[i]) {
+                i += 1;
+            }
+            while (j < b.length && inserted[j]) {
+                j += 1;
+            }
+            edits.add(new Edit(aStart, i, bStart, j));
+        }
+        return edits;
+    }
+
+    /**
+     * @return the EDITS between OLD LINES and NEW LINES in unified format, with CONTEXT
+     * unchanged lines around each change, or an empty string if there are none.
+     */
+    public static String unified(List<String> oldLines, List<String> newLines, List<Edit> edits,
+                                 int context) {
+        StringBuilder out = new StringBuilder();
+        int first = 0;
+        while (first < edits.size()) {
+            // gather the edits whose context overlaps into one hunk
+            int last = first;
+            while (last + 1 < edits.size()
+                   && edits.get(last + 1).aStart - edits.get(last).aEnd <= 2 * context) {
+                last += 1;
+            }
+            Edit start = edits.get(first);
+            Edit end = edits.get(last);
+            int aFrom = Math.max(0, start.aStart - context);
+            int bFrom = start.bStart - (start.aStart - aFrom);
+            int aTo = Math.min(oldLines.size(), end.aEnd + context);
+            int bTo = end.bEnd + (aTo - end.aEnd);
+            out.append("@@ -").append(range(aFrom, aTo)).append(" +").append(range(bFrom, bTo))
+               .append(" @@\n");
+            int i = aFrom;
+            for (int e = first; e <= last; e += 1) {
+                Edit edit = edits.get(e);
+                appendLines(out, ' ', oldLines, i, edit.aStart);
+                appendLines(out, '-', oldLines, edit.aStart, edit.aEnd);
+                appendLines(out, '+', newLines, edit.bStart, edit.bEnd);
+                i = edit.aEnd;
+            }
+            appendLines(out, ' ', oldLines, i, aTo);
+            first = last + 1;
+        }
+        return out.toString();
+    }
+
+    /**
+     * @return the range of lines [from, to) as written in a unified hunk header.
+     */
+    private static String range(int from, int to) {
+        int count = to - from;
+        if (count == 1) {
+            return Integer.toString(from + 1);
+        }
+        return (count == 0 ? from : from + 1) + "," + count;
+    }
+
+    /**
+     * Append the lines [from, to) of LINES to OUT, each after PREFIX.
+     */
+    private static void appendLines(StringBuilder out, char prefix, List<String> lines,
+                                    int from, int to) {
+        for (int i = from; i < to; i += 1) {
+            String line = lines.get(i);
+            out.append(prefix).append(line);
+            if (!line.endsWith("\n")) {
+                out.append("\n\\ No newline at end of file\n");
+            }
+        }
+    }
+}
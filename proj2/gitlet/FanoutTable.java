@@ -0,0 +1,160 @@
+package gitlet;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * A sorted table of object IDs preceded by a 256-entry fan-out table.
+ * Entry i of the fan-out table holds the number of IDs whose first byte is at most i,
+ * so the IDs starting with byte b occupy the slots [fanout[b - 1], fanout[b]) and a lookup
+ * only needs to binary search that small range.
+ */
+public class FanoutTable {
+    /** Number of entries in the fan-out table, one for each value of the first byte. */
+    public static final int FANOUT_SIZE = 256;
+
+    /** The buffer holding the table. */
+    private final ByteBuffer buffer;
+    /** Offset of the fan-out table within the buffer. */
+    private final int fanoutStart;
+    /** Offset of the first sorted ID within the buffer. */
+    private final int idsStart;
+    /** Length of each ID in bytes. */
+    private final int idBytes;
+
+    /**
+     * Read a table laid out by {@link #write} starting at the given offset of BUFFER.
+     * @param buffer a buffer holding the table, typically a memory-mapped index file.
+     * @param offset the position of the fan-out table within the buffer.
+     * @param idBytes the length of each ID in bytes.
+     */
+    public FanoutTable(ByteBuffer buffer, int offset, int idBytes) {
+        this.buffer = buffer;
+        this.fanoutStart = offset;
+        this.idsStart = offset + FANOUT_SIZE * Integer.BYTES;
+        this.idBytes = idBytes;
+    }
+
+    /**
+     * @return the number of IDs in the table.
+     */
+    public int size() {
+        return fanout(FANOUT_SIZE - 1);
+    }
+
+    /**
+     * @return the offset right after the last ID, where the caller's own data may follow.
+     */
+    public int end() {
+        return idsStart + size() * idBytes;
+    }
+
+    /**
+     * @return the position of the given ID in the table, or -1 if it is absent.
+     */
+    public int find(byte[] id) {
+        int first = id[0] & 0xff;
+        int lo = (first == 0) ? 0 : fanout(first - 1);
+        int hi = fanout(first);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareAt(mid, id);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the position of the first ID that is not less than KEY, or size() if there is none.
+     */
+    public int lowerBound(byte[] key) {
+        return bound(key, false);
+    }
+
+    /**
+     * @return the position of the first ID that is greater than KEY, or size() if there is none.
+     */
+    public int upperBound(byte[] key) {
+        return bound(key, true);
+    }
+
+    /**
+     * Binary search within the fan-out range of the first byte of KEY.
+     * @param inclusive whether IDs equal to KEY are skipped as well.
+     */
+    private int bound(byte[] key, boolean inclusive) {
+        int first = key[0] & 0xff;
+        int lo = (first == 0) ? 0 : fanout(first - 1);
+        int hi = fanout(first);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareAt(mid, key);
+            if (cmp < 0 || (inclusive && cmp == 0)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return the ID stored at position INDEX.
+     */
+    public byte[] idAt(int index) {
+        byte[] id = new byte[idBytes];
+        ByteBuffer view = buffer.duplicate();
+        view.position(idsStart + index * idBytes);
+        view.get(id);
+        return id;
+    }
+
+    /**
+     * @return the cumulative count stored at the given slot of the fan-out table.
+     */
+    private int fanout(int slot) {
+        return buffer.getInt(fanoutStart + slot * Integer.BYTES);
+    }
+
+    /**
+     * Compare the ID at position INDEX with ID as unsigned byte strings.
+     */
+    private int compareAt(int index, byte[] id) {
+        int pos = idsStart + index * idBytes;
+        for (int i = 0; i < idBytes; i += 1) {
+            int diff = (buffer.get(pos + i) & 0xff) - (id[i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Write the fan-out table followed by the IDs.
+     * @param out the destination stream.
+     * @param sortedIds IDs in ascending unsigned byte order, all of the same length.
+     */
+    public static void write(DataOutputStream out, List<byte[]> sortedIds) throws IOException {
+        int[] counts = new int[FANOUT_SIZE];
+        for (byte[] id : sortedIds) {
+            counts[id[0] & 0xff] += 1;
+        }
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+            out.writeInt(total);
+        }
+        for (byte[] id : sortedIds) {
+            out.write(id);
+        }
+    }
+}
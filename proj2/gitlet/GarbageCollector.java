@@ -0,0 +1,315 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static gitlet.Repository.GITLET_DIR;
+import static gitlet.Utils.*;
+
+/**
+ * Handles the `gc` and `gc --slice [milliseconds]` commands, which delete the blobs and
+ * commits nothing refers to any more, such as versions staged and then replaced, or commits
+ * left behind by `reset`.
+ *
+ * Collection marks every object reachable from the roots, then sweeps the others. The roots
+ * are the commits of all branches, the blobs staged for addition, and the commits recorded
+ * in reflogs within the last `gc.reflogExpire` days, so that recent history can still be
+ * recovered. Reachable commits lead to their parents and blobs, and blobs stored as deltas to
+ * their bases. The objects existing when collection starts are listed in a sorted table of
+ * IDs behind a fan-out table, and the marks are one bit per position in that table, so
+ * marking takes a few bytes per object.
+ *
+ * With --slice, marking stops after the given time and saves its progress in the gc-state
+ * file: the table, the marks, and the commits still to visit. Each later `gc` carries on from
+ * there. Objects created in between are not in the table and are never swept. Once all
+ * pending commits are visited, the roots are marked again, which only walks the commits made
+ * since collection started, and the sweep runs at once, so that no object swept can have been
+ * referred to again meanwhile.
+ *
+ * Each run holds the {@link Locks} of HEAD, the stage, every branch, and every reflog from
+ * before it reads the roots until the sweep ends, so no command can make an object reachable
+ * in between. A command may still have saved an object it is about to stage: saving an object
+ * that exists already marks it as used, and the sweep keeps every object saved or used within
+ * the last `gc.pruneExpire` seconds.
+ */
+public class GarbageCollector {
+    /** The state of a collection in progress. */
+    public static final File STATE_FILE = join(GITLET_DIR, "gc-state");
+
+    /** Magic number at the start of the state file. */
+    private static final int MAGIC = 0x47435331;  // "GCS1"
+    /** Milliseconds in a day. */
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    /** The sorted IDs of the objects that existed when collection started. */
+    private final FanoutTable objects;
+    /** The positions in OBJECTS of the objects marked reachable. */
+    private final BitSet marked;
+    /** The reachable commits whose parents and blobs are not marked yet. */
+    private final Deque<String> pending;
+    /** Objects created since collection started that were visited. */
+    private final Set<String> newObjects = new HashSet<>();
+
+    private GarbageCollector(FanoutTable objects, BitSet marked, Deque<String> pending) {
+        this.objects = objects;
+        this.marked = marked;
+        this.pending = pending;
+    }
+
+    /**
+     * Handle the `gc` and `gc --slice [milliseconds]` commands.
+     */
+    public static void gc(String[] args) {
+        long slice = Long.MAX_VALUE;
+        if (args.length == 3 && args[1].equals("--slice")) {
+            try {
+                slice = Long.parseLong(args[2]);
+            } catch (NumberFormatException excp) {
+                exitWithError("Invalid time slice.");
+            }
+            if (slice <= 0) {
+                exitWithError("Invalid time slice.");
+            }
+        } else {
+            Main.validateArgc(args, 1);
+        }
+        long deadline = System.currentTimeMillis() + Math.min(slice, Long.MAX_VALUE / 2);
+
+        lockRoots();
+        GarbageCollector collector = STATE_FILE.isFile() ? resume() : start();
+        if (!collector.markPending(deadline)) {
+            collector.save();
+            message("Garbage collection paused; run gc again to continue.");
+            return;
+        }
+        collector.addRoots();
+        collector.markPending(Long.MAX_VALUE);
+        collector.sweep();
+        STATE_FILE.delete();
+    }
+
+    /**
+     * Lock the state file and every file the roots are read from, in the order of their paths.
+     */
+    private static void lockRoots() {
+        Set<File> files = new TreeSet<>(List.of(STATE_FILE, Head.HEAD_FILE, Stage.STAGE_FILE));
+        for (File dir : new File[] {Branch.BRANCH_DIR, Branch.REFLOG_DIR}) {
+            List<String> names = plainFilenamesIn(dir);
+            for (String name : (names == null) ? List.<String>of() : names) {
+                files.add(join(dir, name));
+            }
+        }
+        for (File file : files) {
+            Locks.acquire(file);
+        }
+    }
+
+    /**
+     * @return a new collection of all objects of the repository, starting from the roots.
+     */
+    private static GarbageCollector start() {
+        Set<String> all = new TreeSet<>(shardedIDsIn(Blob.OBJECT_DIR));
+        all.addAll(shardedIDsIn(Commit.COMMIT_DIR));
+        all.addAll(Pack.listObjects(GITLET_DIR));
+        List<byte[]> ids = new ArrayList<>(all.size());
+        for (String id : all) {
+            if (id.length() == ObjectHash.ID_LENGTH) {
+                ids.add(hexToBytes(id));
+            }
+        }
+        ByteArrayOutputStream table = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(table)) {
+            FanoutTable.write(out, ids);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        GarbageCollector collector = new GarbageCollector(
+                new FanoutTable(ByteBuffer.wrap(table.toByteArray()), 0, ObjectHash.ID_BYTES),
+                new BitSet(ids.size()), new ArrayDeque<>());
+        collector.addRoots();
+        return collector;
+    }
+
+    /**
+     * @return the collection saved in the state file by an earlier `gc --slice`.
+     */
+    private static GarbageCollector resume() {
+        ByteBuffer state = ByteBuffer.wrap(readContents(STATE_FILE));
+        if (state.getInt(0) != MAGIC) {
+            exitWithError("Corrupt gc-state file; delete it to start over.");
+        }
+        FanoutTable objects = new FanoutTable(state, Integer.BYTES, ObjectHash.ID_BYTES);
+        state.position(objects.end());
+        long[] words = new long[state.getInt()];
+        for (int i = 0; i < words.length; i += 1) {
+            words[i] = state.getLong();
+        }
+        Deque<String> pending = new ArrayDeque<>();
+        int count = state.getInt();
+        byte[] id = new byte[ObjectHash.ID_BYTES];
+        for (int i = 0; i < count; i += 1) {
+            state.get(id);
+            pending.push(bytesToHex(id));
+        }
+        return new GarbageCollector(objects, BitSet.valueOf(words), pending);
+    }
+
+    /**
+     * Save the progress of this collection in the state file.
+     */
+    private void save() {
+        ByteArrayOutputStream state = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(state)) {
+            out.writeInt(MAGIC);
+            List<byte[]> ids = new ArrayList<>(objects.size());
+            for (int i = 0; i < objects.size(); i += 1) {
+                ids.add(objects.idAt(i));
+            }
+            FanoutTable.write(out, ids);
+            long[] words = marked.toLongArray();
+            out.writeInt(words.length);
+            for (long word : words) {
+                out.writeLong(word);
+            }
+            out.writeInt(pending.size());
+            for (String commitID : pending) {
+                out.write(hexToBytes(commitID));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        writeAtomically(STATE_FILE, state.toByteArray(), GITLET_DIR);
+    }
+
+    /**
+     * Queue the commits of all branches and of recent reflog entries, and mark the blobs
+     * staged for addition.
+     */
+    private void addRoots() {
+        for (String branch : Branch.getAllBranches()) {
+            pending.push(Branch.readCurrentBranch(branch).getRecentCommit());
+        }
+        for (String blobID : new Stage().stageMap().values()) {
+            markBlob(blobID);
+        }
+        long expiry = System.currentTimeMillis() - Config.getInt(Config.REFLOG_EXPIRE) * DAY;
+        List<String> reflogs = plainFilenamesIn(Branch.REFLOG_DIR);
+        for (String reflog : (reflogs == null) ? List.<String>of() : reflogs) {
+            String log = new String(readContents(join(Branch.REFLOG_DIR, reflog)),
+                                    StandardCharsets.UTF_8);
+            for (String line : log.split("\n")) {
+                String[] entry = line.split(" ");
+                if (entry.length == 3 && Long.parseLong(entry[2]) >= expiry) {
+                    for (int k = 0; k < 2; k += 1) {
+                        if (!entry[k].matches("0+") && Commit.checkCommitExists(entry[k])) {
+                            pending.push(entry[k]);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Visit pending commits until none is left or the DEADLINE passes, visiting at least one
+     * so that every slice makes progress.
+     * @return true if no commit is left to visit.
+     */
+    private boolean markPending(long deadline) {
+        while (!pending.isEmpty()) {
+            String commitID = pending.pop();
+            if (mark(commitID)) {
+                Commit commit = Commit.readCommit(commitID);
+                for (String blobID : commit.commitMapping().values()) {
+                    markBlob(blobID);
+                }
+                for (String parent : new String[] {commit.parentCommit(),
+                                                   commit.secondParentCommit()}) {
+                    if (parent != null && !parent.isEmpty()) {
+                        pending.push(parent);
+                    }
+                }
+            }
+            if (!pending.isEmpty() && System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Mark a blob and the chain of blobs it is stored as a delta against.
+     */
+    private void markBlob(String blobID) {
+        while (blobID != null && mark(blobID)) {
+            blobID = Blob.deltaBase(blobID);
+        }
+    }
+
+    /**
+     * Mark the object with the given ID.
+     * @return true if it was not marked before; objects created after collection started
+     * count as marked once they are first seen.
+     */
+    private boolean mark(String id) {
+        int position = objects.find(hexToBytes(id));
+        if (position < 0) {
+            return newObjects.add(id);
+        }
+        if (marked.get(position)) {
+            return false;
+        }
+        marked.set(position);
+        return true;
+    }
+
+    /**
+     * Delete every object of the table that was not marked and was not saved or used within
+     * the last `gc.pruneExpire` seconds, rebuilding the commit graph and the indexes of
+     * commits if commits were deleted.
+     */
+    private void sweep() {
+        long freshSince = System.currentTimeMillis() - Config.getInt(Config.PRUNE_EXPIRE) * 1000L;
+        Set<String> unreachable = new HashSet<>();
+        boolean commitsDeleted = false;
+        for (int i = marked.nextClearBit(0); i < objects.size(); i = marked.nextClearBit(i + 1)) {
+            String id = bytesToHex(objects.idAt(i));
+            unreachable.add(id);
+            deleteUnused(shardFile(Blob.OBJECT_DIR, id), freshSince);
+            commitsDeleted |= deleteUnused(shardFile(Commit.COMMIT_DIR, id), freshSince);
+        }
+        if (unreachable.isEmpty()) {
+            return;
+        }
+        for (String id : Pack.listObjects(Pack.COMMIT)) {
+            commitsDeleted |= unreachable.contains(id);
+        }
+        Pack.prune(id -> !unreachable.contains(id), freshSince);
+        if (commitsDeleted) {
+            CommitGraph.rebuild();
+            CommitIndex.rebuild(Commit.readAllCommits());
+            TimeIndex.rebuild();
+            MessageIndex.rebuild();
+        }
+    }
+
+    /**
+     * Delete the object FILE unless it was saved or used at or after FRESHSINCE.
+     * @return true if it was deleted.
+     */
+    private static boolean deleteUnused(File file, long freshSince) {
+        return file.lastModified() < freshSince && file.delete();
+    }
+}
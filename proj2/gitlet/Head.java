@@ -1,6 +1,7 @@
 package gitlet;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
 
 import static gitlet.Repository.GITLET_DIR;
 import static gitlet.Utils.*;
@@ -18,7 +19,7 @@ public class Head {
      * @return the name of current branch that is tracked by the HEAD pointer.
      */
     public static String getHeadState() {
-        return readContentsAsString(HEAD_FILE);
+        return new String(Session.read(HEAD_FILE), StandardCharsets.UTF_8);
     }
 
     /**
@@ -26,6 +27,6 @@ public class Head {
      * @param currBranch the name of current working branch.
      */
     public static void setHeadPointer(String currBranch) {
-        writeContents(HEAD_FILE, currBranch);
+        Session.write(HEAD_FILE, currBranch.getBytes(StandardCharsets.UTF_8));
     }
 }
@@ -0,0 +1,276 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+import static gitlet.Repository.GITLET_DIR;
+import static gitlet.Utils.*;
+
+/**
+ * A write-ahead journal that makes the metadata changes of one command all-or-nothing.
+ * When a command ends, every file it changed is appended to a journal of its own, which is
+ * synced to disk once, together with its directory; that sync is the moment the command takes
+ * effect. Each file is then replaced by an atomic rename of a temporary copy synced to disk,
+ * the new commits are added to the indexes of commits, and the directories of the files are
+ * synced before the journal is deleted, so the journal outlives none of its changes.
+ *
+ * If the process dies before the sync, the journal is incomplete and its checksum fails, so it
+ * is discarded and the repository keeps every file of the previous command. If it dies after,
+ * the next command finds the complete journal and applies it again before doing anything else,
+ * then adds the commits it saved to the indexes of commits, which are derived from them.
+ * Applying a journal only replaces whole files, and indexing a commit twice only adds it once,
+ * so doing both twice is harmless.
+ * Several processes may be applying their journals at once, so each holds a lock on its own
+ * journal while it does, and only a journal whose lock is free was left by a dead process.
+ *
+ * A journal holds a magic number and the number of entries, then for each entry its kind,
+ * the path of the file under the .gitlet directory, and for a WRITE the new contents or for
+ * an APPEND the bytes to add at the end, followed by a CRC-32 of everything before it.
+ * Appending is made safe to repeat by skipping it when the file already ends with the bytes,
+ * after cutting off a last line left partly written, so logs that only grow, such as reflogs,
+ * are journaled by their new lines rather than by their whole contents.
+ */
+public class Journal {
+    /** The directory of journals, each present only while its changes are applied. */
+    public static final File JOURNAL_DIR = join(GITLET_DIR, "journals");
+
+    /** Magic number at the start of the journal. */
+    private static final int MAGIC = 0x4a524e31;  // "JRN1"
+    /** Entry replacing the contents of a file. */
+    private static final byte WRITE = 1;
+    /** Entry deleting a file. */
+    private static final byte DELETE = 2;
+    /** Entry adding bytes at the end of a file. */
+    private static final byte APPEND = 3;
+
+    /**
+     * Make the CHANGES of a command durable and apply them.
+     * @param changes the new contents of each file, null for a file to delete.
+     * @param appends the bytes to add at the end of each file, applied after CHANGES.
+     */
+    public static void commit(Map<File, byte[]> changes, Map<File, byte[]> appends) {
+        List<Change> entries = new ArrayList<>();
+        for (Map.Entry<File, byte[]> change : changes.entrySet()) {
+            byte kind = (change.getValue() == null) ? DELETE : WRITE;
+            entries.add(new Change(kind, change.getKey(), change.getValue()));
+        }
+        for (Map.Entry<File, byte[]> append : appends.entrySet()) {
+            entries.add(new Change(APPEND, append.getKey(), append.getValue()));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(entries.size());
+            for (Change change : entries) {
+                out.writeByte(change.kind);
+                out.writeUTF(relativePath(GITLET_DIR, change.file));
+                if (change.kind != DELETE) {
+                    out.writeInt(change.contents.length);
+                    out.write(change.contents);
+                }
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeLong(crc.getValue());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+
+        JOURNAL_DIR.mkdir();
+        File journal;
+        try {
+            journal = File.createTempFile("journal-", "", JOURNAL_DIR);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try (FileChannel channel = FileChannel.open(journal.toPath(), StandardOpenOption.WRITE)) {
+            channel.lock();
+            ByteBuffer contents = ByteBuffer.wrap(bytes.toByteArray());
+            while (contents.hasRemaining()) {
+                channel.write(contents);
+            }
+            channel.force(false);
+            syncDirectory(JOURNAL_DIR);
+            apply(entries);
+            Commit.indexSaved(changes.keySet());
+            journal.delete();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Apply each journal left by a command that died before it finished applying it, or
+     * discard it if the command died before it was complete. The files of the journal are
+     * locked first, so its changes are not mixed with those of a running command.
+     * Called before each command, and by each command before it writes its own changes.
+     */
+    public static void recover() {
+        File[] journals = JOURNAL_DIR.listFiles();
+        if (journals == null) {
+            return;
+        }
+        for (File journal : journals) {
+            try (FileChannel channel = FileChannel.open(journal.toPath(),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                if (channel.tryLock() == null || !journal.exists()) {
+                    continue;  // still being applied, or applied since it was listed
+                }
+                ByteBuffer data = ByteBuffer.allocate((int) channel.size());
+                while (data.hasRemaining() && channel.read(data) >= 0) {
+                    continue;
+                }
+                List<Change> changes = read(data.array());
+                if (changes != null) {
+                    Set<File> files = new TreeSet<>();
+                    for (Change change : changes) {
+                        files.add(change.file);
+                    }
+                    for (File file : files) {
+                        if (!Session.isObject(file)) {
+                            Locks.acquire(file);
+                        }
+                    }
+                    apply(changes);
+                    Commit.indexSaved(files);
+                }
+                journal.delete();
+            } catch (NoSuchFileException excp) {
+                // applied by another process since it was listed
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Replace, delete, or append to every file in CHANGES, in order, and sync them and their
+     * directories to disk, including the parents of directories created for them.
+     */
+    private static void apply(List<Change> changes) {
+        Set<File> dirs = new TreeSet<>();
+        for (Change change : changes) {
+            File dir = change.file.getParentFile();
+            dirs.add(dir);
+            if (change.kind == DELETE) {
+                change.file.delete();
+                continue;
+            }
+            if (dir.mkdirs()) {
+                dirs.add(dir.getParentFile());
+            }
+            if (change.kind == WRITE) {
+                writeAtomically(change.file, change.contents, GITLET_DIR);
+            } else {
+                append(change.file, change.contents);
+            }
+        }
+        for (File dir : dirs) {
+            syncDirectory(dir);
+        }
+    }
+
+    /**
+     * Add ADDED at the end of FILE, unless the file already ends with it, as it does when a
+     * journal is applied again. A last line left partly written by a process that died while
+     * appending is cut off first.
+     */
+    private static void append(File file, byte[] added) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            long from = size - Math.min(size, added.length);
+            ByteBuffer tail = ByteBuffer.allocate((int) (size - from));
+            while (tail.hasRemaining() && channel.read(tail, from + tail.position()) >= 0) {
+                continue;
+            }
+            byte[] last = tail.array();
+            if (Arrays.equals(last, added)) {
+                return;
+            }
+            int end = last.length;
+            while (end > 0 && last[end - 1] != '\n') {
+                end -= 1;
+            }
+            if (end < last.length && size > 0) {
+                size -= last.length - end;
+                channel.truncate(size);
+            }
+            ByteBuffer contents = ByteBuffer.wrap(added);
+            while (contents.hasRemaining()) {
+                channel.write(contents, size + contents.position());
+            }
+            channel.force(false);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * @return the changes recorded in the journal DATA, or null if it is incomplete.
+     */
+    private static List<Change> read(byte[] data) {
+        if (data.length < 2 * Integer.BYTES + Long.BYTES) {
+            return null;
+        }
+        int end = data.length - Long.BYTES;
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, end);
+        if (ByteBuffer.wrap(data, end, Long.BYTES).getLong() != crc.getValue()) {
+            return null;
+        }
+        List<Change> changes = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(Arrays.copyOf(data, end)))) {
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            for (int i = in.readInt(); i > 0; i -= 1) {
+                byte kind = in.readByte();
+                File file = join(GITLET_DIR, in.readUTF());
+                byte[] contents = null;
+                if (kind != DELETE) {
+                    contents = new byte[in.readInt()];
+                    in.readFully(contents);
+                }
+                changes.add(new Change(kind, file, contents));
+            }
+        } catch (IOException excp) {
+            return null;
+        }
+        return changes;
+    }
+
+    /**
+     * One entry of a journal.
+     */
+    private static class Change {
+        /** WRITE, DELETE, or APPEND. */
+        private final byte kind;
+        /** The file changed. */
+        private final File file;
+        /** The new contents or the bytes appended; null for a DELETE. */
+        private final byte[] contents;
+
+        Change(byte kind, File file, byte[] contents) {
+            this.kind = kind;
+            this.file = file;
+            this.contents = contents;
+        }
+    }
+}
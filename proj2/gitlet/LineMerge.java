@@ -0,0 +1,134 @@
+package gitlet;
+
+import java.util.List;
+
+/**
+ * A line-by-line three-way merge of two versions of a text that share a base version.
+ * Both versions are diffed against the base with {@link Diff}, and the edits of both sides
+ * are walked together in order of the base lines they replace. Edits of the two sides that
+ * overlap or touch form one chunk; a chunk changed on one side only takes that side, a chunk
+ * changed the same way on both sides takes either, and any other chunk becomes a conflict
+ * hunk showing both versions. Lines outside all chunks are the same in the three versions.
+ */
+public class LineMerge {
+    /** The merged text. */
+    private final String text;
+    /** The number of conflict hunks in the merged text. */
+    private final int conflicts;
+
+    private LineMerge(String text, int conflicts) {
+        this.text = text;
+        this.conflicts = conflicts;
+    }
+
+    /**
+     * @return the merge of OURS and THEIRS, two versions of BASE.
+     */
+    public static LineMerge merge(String base, String ours, String theirs) {
+        List<String> baseLines = Diff.lines(base);
+        List<String> ourLines = Diff.lines(ours);
+        List<String> theirLines = Diff.lines(theirs);
+        List<Diff.Edit> ourEdits = Diff.diff(baseLines, ourLines);
+        List<Diff.Edit> theirEdits = Diff.diff(baseLines, theirLines);
+
+        StringBuilder merged = new StringBuilder();
+        int conflicts = 0;
+        int copied = 0;
+        int i = 0;
+        int j = 0;
+        while (i < ourEdits.size() || j < theirEdits.size()) {
+            // start a chunk at the first remaining edit, then take in every edit touching it
+            int lo = Math.min(start(ourEdits, i), start(theirEdits, j));
+            int hi = lo;
+            int ourFirst = i;
+            int theirFirst = j;
+            while (true) {
+                if (i < ourEdits.size() && ourEdits.get(i).aStart <= hi) {
+                    hi = Math.max(hi, ourEdits.get(i).aEnd);
+                    i += 1;
+                } else if (j < theirEdits.size() && theirEdits.get(j).aStart <= hi) {
+                    hi = Math.max(hi, theirEdits.get(j).aEnd);
+                    j += 1;
+                } else {
+                    break;
+                }
+            }
+
+            appendLines(merged, baseLines, copied, lo);
+            List<String> ourChunk = chunk(baseLines, ourLines, ourEdits, ourFirst, i, lo, hi);
+            List<String> theirChunk = chunk(baseLines, theirLines, theirEdits, theirFirst, j,
+                                            lo, hi);
+            if (theirFirst == j || ourChunk.equals(theirChunk)) {
+                appendLines(merged, ourChunk, 0, ourChunk.size());
+            } else if (ourFirst == i) {
+                appendLines(merged, theirChunk, 0, theirChunk.size());
+            } else {
+                merged.append("<<<<<<< HEAD\n");
+                appendSide(merged, ourChunk);
+                merged.append("=======\n");
+                appendSide(merged, theirChunk);
+                merged.append(">>>>>>>\n");
+                conflicts += 1;
+            }
+            copied = hi;
+        }
+        appendLines(merged, baseLines, copied, baseLines.size());
+        return new LineMerge(merged.toString(), conflicts);
+    }
+
+    /**
+     * @return the merged text, with conflict hunks where the two versions disagree.
+     */
+    public String text() {
+        return text;
+    }
+
+    /**
+     * @return the number of conflict hunks in the merged text.
+     */
+    public int conflicts() {
+        return conflicts;
+    }
+
+    /**
+     * @return the first base line changed by the edit at INDEX of EDITS, or no line if all
+     * edits have been taken.
+     */
+    private static int start(List<Diff.Edit> edits, int index) {
+        return (index < edits.size()) ? edits.get(index).aStart : Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return the lines of VERSION standing for the base lines [lo, hi), given that the
+     * edits of VERSION within those base lines are EDITS[first, end).
+     */
+    private static List<String> chunk(List<String> baseLines, List<String> version,
+                                      List<Diff.Edit> edits, int first, int end, int lo, int hi) {
+        if (first == end) {
+            return baseLines.subList(lo, hi);
+        }
+        Diff.Edit start = edits.get(first);
+        Diff.Edit last = edits.get(end - 1);
+        return version.subList(start.bStart - (start.aStart - lo), last.bEnd + (hi - last.aEnd));
+    }
+
+    /**
+     * Append one side of a conflict hunk, ending it with a newline so that the following
+     * marker starts a line of its own.
+     */
+    private static void appendSide(StringBuilder out, List<String> lines) {
+        appendLines(out, lines, 0, lines.size());
+        if (!lines.isEmpty() && !lines.get(lines.size() - 1).endsWith("\n")) {
+            out.append("\n");
+        }
+    }
+
+    /**
+     * Append the lines [from, to) of LINES to OUT.
+     */
+    private static void appendLines(StringBuilder out, List<String> lines, int from, int to) {
+        for (int k = from; k < to; k += 1) {
+            out.append(lines.get(k));
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import static gitlet.Utils.*;
+
+/**
+ * Copies stored blobs between two repositories on local disks without reading them into
+ * memory. Since blobs are named by their contents and never rewritten, the stored file of a
+ * loose blob can be used as is by the other repository: it is hard-linked when both are on
+ * the same file system, and otherwise copied by the file system with FileChannel.transferTo,
+ * through a temporary file moved into place. Several files are copied at once by a bounded
+ * pool of threads, so that a large transfer is limited by the disks rather than by one thread.
+ *
+ * Packed blobs and deltas are left to the caller, which copies them by content: a pack is
+ * read through the local caches, and a delta needs its base, which may be stored differently
+ * on the other side.
+ */
+public class LocalTransfer {
+    /** Largest number of files copied at once. */
+    private static final int MAX_THREADS = 8;
+
+    /** Whether hard links may work; cleared by the first link that fails. */
+    private static volatile boolean linking = true;
+
+    /** The objects directory of the receiving repository. */
+    private final File targetObjects;
+    /** The directory for temporary files, on the same file system as TARGET OBJECTS. */
+    private final File tempDir;
+    /** The number of bytes of the files copied or linked so far. */
+    private long bytes = 0;
+    /** The blobs that could not be copied as files. */
+    private final List<String> uncopied = new ArrayList<>();
+
+    /**
+     * A transfer into the repository in TARGET GITLET DIR.
+     */
+    public LocalTransfer(File targetGitletDir) {
+        this.targetObjects = join(targetGitletDir, "objects");
+        this.tempDir = targetGitletDir;
+    }
+
+    /**
+     * Copy the stored files of BLOBS, reporting progress on standard error if
+     * `transfer.report` is set.
+     * @param sourceFile gives the loose file of a blob in the sending repository.
+     */
+    public void copyBlobs(List<String> blobs, Function<String, File> sourceFile) {
+        List<String> ids = new ArrayList<>();
+        List<File> sources = new ArrayList<>();
+        for (String blobID : blobs) {
+            File source = sourceFile.apply(blobID);
+            if (source.isFile() && !BlobFormat.isDelta(source)) {
+                ids.add(blobID);
+                sources.add(source);
+            } else {
+                uncopied.add(blobID);
+            }
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+
+        boolean report = Config.getBoolean(Config.TRANSFER_REPORT);
+        int threads = Math.min(MAX_THREADS, Math.min(ids.size(),
+                                                     Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<Long>> copies = new ArrayList<>();
+            for (int i = 0; i < ids.size(); i += 1) {
+                File source = sources.get(i);
+                File target = shardFile(targetObjects, ids.get(i));
+                copies.add(pool.submit(() -> copy(source, target)));
+            }
+            for (int i = 0; i < copies.size(); i += 1) {
+                bytes += copies.get(i).get();
+                if (report) {
+                    System.err.printf("\rCopying objects: %d/%d", i + 1, copies.size());
+                }
+            }
+            if (report) {
+                System.err.println();
+            }
+        } catch (ExecutionException excp) {
+            throw new IllegalArgumentException(excp.getCause().getMessage());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            exitWithError("Interrupted while copying objects.");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the number of bytes of the files copied or linked.
+     */
+    public long bytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the blobs that are packed or stored as deltas in the sending repository, which
+     * must be copied by content.
+     */
+    public List<String> uncopied() {
+        return uncopied;
+    }
+
+    /**
+     * Link or copy SOURCE to TARGET, unless TARGET exists already.
+     * @return the size of SOURCE, or 0 if TARGET existed.
+     */
+    private long copy(File source, File target) throws IOException {
+        target.getParentFile().mkdirs();
+        if (linking) {
+            try {
+                Files.createLink(target.toPath(), source.toPath());
+                return source.length();
+            } catch (FileAlreadyExistsException excp) {
+                return 0;
+            } catch (IOException | UnsupportedOperationException excp) {
+                linking = false;  // another file system, or no links there
+            }
+        }
+        File temp = File.createTempFile("copy", ".tmp", tempDir);
+        long length;
+        try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+            length = in.size();
+            long done = 0;
+            while (done < length) {
+                long n = in.transferTo(done, length - done, out);
+                if (n <= 0) {
+                    throw new IOException("unexpected end of " + source);
+                }
+                done += n;
+            }
+        }
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                   StandardCopyOption.REPLACE_EXISTING);
+        return length;
+    }
+}
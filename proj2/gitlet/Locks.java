@@ -0,0 +1,135 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static gitlet.Repository.GITLET_DIR;
+import static gitlet.Utils.*;
+
+/**
+ * Locks on the mutable metadata files of the repository, one for HEAD, one for the stage,
+ * and one for each branch, so that processes changing different files do not wait for
+ * each other. The indexes derived from the commits have locks of their own, held only while
+ * one of them is rewritten. A lock is an exclusive FileChannel lock on a file under the
+ * locks directory with the same path as the file it protects; the operating system releases
+ * it if the process dies, so a crashed command never leaves the repository locked.
+ *
+ * Locks are only taken while a command writes its changes, never while it reads, since
+ * every metadata file is replaced by an atomic rename and a reader always sees a whole file.
+ * The objects need no lock at all: they are named by their contents and never rewritten,
+ * so two processes writing the same object write the same bytes.
+ */
+public class Locks {
+    /** The directory of lock files. */
+    public static final File LOCK_DIR = join(GITLET_DIR, "locks");
+
+    /** Time to wait for a lock held by another process, in milliseconds. */
+    private static final long TIMEOUT = 10000;
+    /** Time between two attempts to take a lock, in milliseconds. */
+    private static final long POLL_INTERVAL = 10;
+
+    /** The locks held by this process, by lock file. */
+    private static final Map<String, FileLock> HELD = new HashMap<>();
+
+    /**
+     * Lock FILE, waiting while another process holds its lock. Does nothing if this process
+     * holds it already. Locks must be taken in the order of their paths, which rules out
+     * deadlocks between commands; the timeout only guards against a stuck process.
+     */
+    public static void acquire(File file) {
+        acquire(GITLET_DIR, file);
+    }
+
+    /**
+     * Lock FILE of the repository in GITLETDIR, which may be a remote one.
+     */
+    public static void acquire(File gitletDir, File file) {
+        File lockFile = lockFile(gitletDir, file);
+        String path = lockFile.getAbsolutePath();
+        if (HELD.containsKey(path)) {
+            return;
+        }
+        lockFile.getParentFile().mkdirs();
+        try {
+            FileChannel channel = FileChannel.open(lockFile.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            long deadline = System.currentTimeMillis() + TIMEOUT;
+            FileLock lock;
+            while ((lock = channel.tryLock()) == null) {
+                if (System.currentTimeMillis() > deadline) {
+                    channel.close();
+                    exitWithError("Another gitlet process is using the repository.");
+                }
+                Thread.sleep(POLL_INTERVAL);
+            }
+            HELD.put(path, lock);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            exitWithError("Interrupted while waiting for the repository.");
+        }
+    }
+
+    /**
+     * Run ACTION holding the lock of FILE, then release the lock unless this process held it
+     * before. Used for the derived indexes: no other lock is taken while holding one of theirs,
+     * so they can be taken at any time without breaking the order of paths.
+     */
+    public static void whileHolding(File file, Runnable action) {
+        whileHolding(GITLET_DIR, file, action);
+    }
+
+    /**
+     * Run ACTION holding the lock of FILE of the repository in GITLETDIR, which may be a
+     * remote one, as {@link #whileHolding(File, Runnable)} does.
+     */
+    public static void whileHolding(File gitletDir, File file, Runnable action) {
+        String path = lockFile(gitletDir, file).getAbsolutePath();
+        boolean held = HELD.containsKey(path);
+        acquire(gitletDir, file);
+        try {
+            action.run();
+        } finally {
+            if (!held) {
+                release(HELD.remove(path));
+            }
+        }
+    }
+
+    /**
+     * Release every lock held by this process.
+     */
+    public static void releaseAll() {
+        List<FileLock> locks = new ArrayList<>(HELD.values());
+        HELD.clear();
+        for (FileLock lock : locks) {
+            release(lock);
+        }
+    }
+
+    /**
+     * Release LOCK by closing its channel.
+     */
+    private static void release(FileLock lock) {
+        try {
+            lock.channel().close();
+        } catch (IOException excp) {
+            // closing the channel releases the lock in any case
+        }
+    }
+
+    /**
+     * @return the lock file of FILE of the repository in GITLETDIR.
+     */
+    private static File lockFile(File gitletDir, File file) {
+        return join(gitletDir, LOCK_DIR.getName(), relativePath(gitletDir, file));
+    }
+}
@@ -11,17 +11,49 @@ public class Main {
     /**
      * Usage: java gitlet.Main ARGS, where ARGS contains
      * <COMMAND> <OPERAND1> <OPERAND2> ...
+     * The command is sent to the daemon of the repository if one is running.
      */
     public static void main(String[] args) {
+        if (!Daemon.forward(args)) {
+            run(args);
+        }
+    }
+
+    /**
+     * Run the command in ARGS in this process.
+     * A command stopped by an error prints the error message. Either way, the metadata files
+     * it changed are written when it ends, unless another process changed them meanwhile.
+     */
+    public static void run(String[] args) {
+        try {
+            try {
+                Journal.recover();
+                execute(args);
+            } finally {
+                Session.flush();
+            }
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        }
+    }
+
+    /**
+     * Execute the command in ARGS.
+     */
+    private static void execute(String[] args) {
         // handle empty args
         validateNonemptyArgs(args);
 
         String firstArg = args[0];
         switch (firstArg) {
             case "init":
-                // handle the `init` command
-                validateArgc(args, 1);
-                init();
+                // handle the `init [--hash algorithm]` command
+                if (args.length == 3 && args[1].equals("--hash")) {
+                    init(args[2]);
+                } else {
+                    validateArgc(args, 1);
+                    init(RepositoryFormat.DEFAULT_HASH);
+                }
                 break;
             case "add":
                 // handle the `add [filename]` command
@@ -52,8 +84,7 @@ public class Main {
             case "global-log":
                 // handle the `log` command
                 validateGitInit();
-                validateArgc(args, 1);
-                System.out.println(globalLog());
+                globalLog(args);
                 break;
             case "checkout":
                 // handle the `checkout [file name/commit id/branch name]` command
@@ -61,8 +92,12 @@ public class Main {
                 checkout(args);
                 break;
             case "find":
-                // handle the `find [commit message]` command
+                // handle the `find [commit message]` and `find --contains [text]` commands
                 validateGitInit();
+                if (args.length == 3 && args[1].equals("--contains")) {
+                    System.out.println(findCommitsContaining(args[2]));
+                    break;
+                }
                 validateArgc(args, 2);
                 System.out.println(findCommitID(args[1]));
                 break;
@@ -72,6 +107,11 @@ public class Main {
                 validateArgc(args, 1);
                 System.out.println(status());
                 break;
+            case "diff":
+                // handle the `diff`, `diff [commit id]` and `diff [commit id] [commit id]` commands
+                validateGitInit();
+                System.out.print(diff(args));
+                break;
             case "branch":
                 // handle the `branch [branch name]` command
                 validateGitInit();
@@ -126,6 +166,54 @@ public class Main {
                 validateArgc(args, 3);
                 Remote.pull(args[1], args[2]);
                 break;
+            case "repack":
+                // handle the `repack` command
+                validateGitInit();
+                validateArgc(args, 1);
+                Pack.repack();
+                break;
+            case "gc":
+                // handle the `gc` and `gc --slice [milliseconds]` commands
+                validateGitInit();
+                GarbageCollector.gc(args);
+                break;
+            case "config":
+                // handle the `config [key] [value]` command
+                validateGitInit();
+                Config.config(args);
+                break;
+            case "reindex":
+                // handle the `reindex` command
+                validateGitInit();
+                validateArgc(args, 1);
+                MessageIndex.rebuild();
+                TimeIndex.rebuild();
+                CommitIndex.rebuild(Commit.readAllCommits());
+                break;
+            case "migrate":
+                // handle the `migrate` command
+                validateGitInit();
+                validateArgc(args, 1);
+                RepositoryFormat.migrate();
+                break;
+            case "serve":
+                // handle the `serve [port]` command
+                validateGitInit();
+                Server.serve(args);
+                break;
+            case "batch":
+                // handle the `batch [script]` and `batch -` commands
+                Batch.run(args);
+                break;
+            case "daemon":
+                // handle the `daemon` and `daemon stop` commands
+                validateGitInit();
+                if (args.length == 2 && args[1].equals("stop")) {
+                    exitWithError("No daemon is running.");
+                }
+                validateArgc(args, 1);
+                Daemon.serve();
+                break;
             default:
                 validateGitInit();
                 exitWithError("No command with that name exists.");
@@ -158,10 +246,12 @@ public class Main {
     /**
      * Check whether the current working directory has a .gitlet subdirectory.
      * If it is not initialized, exit the program.
+     * Repositories created by earlier versions are upgraded to the current format.
      */
     public static void validateGitInit() {
         if (!GITLET_DIR.exists()) {
             exitWithError("Not in an initialized Gitlet directory.");
         }
+        RepositoryFormat.upgrade();
     }
 }
@@ -0,0 +1,161 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Finds the best common ancestors of two commits: the common ancestors that are not ancestors
+ * of another common ancestor. A linear history has one; after criss-cross merges there may be
+ * several, and all of them are returned.
+ *
+ * Both commits are walked at once, highest generation first, painting each commit reached
+ * with the side or sides it was reached from. A commit painted from both sides is a common
+ * ancestor; its own ancestors are painted stale, as they cannot be better ones. Since a commit
+ * has a higher generation than all of its ancestors, every commit is taken from the queue only
+ * after all of its descendants that were reached, so its paint is final by then, and a common
+ * ancestor that is not stale when taken is a best one. The walk stops as soon as only stale
+ * commits are left in the queue, so merging two recent branches of a long history only visits
+ * the commits between the heads and their merge bases.
+ *
+ * Parent and generation lookups are cached in a flat int array indexed by the records of the
+ * {@link CommitGraph}, shared by all searches of a process.
+ */
+public class MergeBase {
+    /** Paint of commits reached from the first commit. */
+    private static final byte PARENT1 = 1;
+    /** Paint of commits reached from the second commit. */
+    private static final byte PARENT2 = 2;
+    /** Paint of ancestors of a common ancestor. */
+    private static final byte STALE = 4;
+    /** Mark of commits waiting in the queue. */
+    private static final byte QUEUED = 8;
+    /** Cached value of a field that was not read from the graph yet. */
+    private static final int UNREAD = -2;
+    /** Number of cached fields per commit: first parent, second parent, generation. */
+    private static final int FIELDS = 3;
+
+    /** The graph the cache was filled from. */
+    private static CommitGraph cachedGraph;
+    /** The parents and generation of each commit of the graph, or UNREAD. */
+    private static int[] links = new int[0];
+
+    /** The paint of each commit of the graph. */
+    private final byte[] flags;
+    /** The commits to visit, highest generation first. */
+    private final PriorityQueue<Integer> queue;
+    /** Number of commits in the queue that are not stale. */
+    private int nonStale = 0;
+
+    private MergeBase(int size) {
+        this.flags = new byte[size];
+        this.queue = new PriorityQueue<>((x, y) -> (generation(x) != generation(y))
+                                                   ? Integer.compare(generation(y), generation(x))
+                                                   : Integer.compare(y, x));
+    }
+
+    /**
+     * @return the IDs of the best common ancestors of the commits C1 and C2, highest
+     * generation first, or an empty list if they have no common ancestor.
+     */
+    public static List<String> find(String c1, String c2) {
+        CommitGraph graph = CommitGraph.open();
+        int first = graph.indexOf(c1);
+        int second = graph.indexOf(c2);
+        loadCache(graph);
+        List<String> bases = new ArrayList<>();
+        for (int base : new MergeBase(graph.size()).search(first, second)) {
+            bases.add(graph.id(base));
+        }
+        return bases;
+    }
+
+    /**
+     * @return the record indexes of the best common ancestors of FIRST and SECOND.
+     */
+    private List<Integer> search(int first, int second) {
+        List<Integer> bases = new ArrayList<>();
+        if (first == second) {
+            bases.add(first);
+            return bases;
+        }
+        paint(first, PARENT1);
+        paint(second, PARENT2);
+        while (nonStale > 0) {
+            int commit = queue.remove();
+            byte paint = (byte) (flags[commit] & (PARENT1 | PARENT2 | STALE));
+            flags[commit] &= ~QUEUED;
+            if ((paint & STALE) == 0) {
+                nonStale -= 1;
+                if ((paint & (PARENT1 | PARENT2)) == (PARENT1 | PARENT2)) {
+                    bases.add(commit);
+                    paint |= STALE;
+                }
+            }
+            for (int k = 0; k < 2; k += 1) {
+                int parent = link(commit, k);
+                if (parent != CommitGraph.NONE) {
+                    paint(parent, paint);
+                }
+            }
+        }
+        return bases;
+    }
+
+    /**
+     * Add PAINT to the commit at INDEX, queueing it if it is not queued already.
+     */
+    private void paint(int index, byte paint) {
+        byte old = flags[index];
+        if ((old & paint) == paint) {
+            return;
+        }
+        flags[index] = (byte) (old | paint);
+        if ((old & QUEUED) == 0) {
+            flags[index] |= QUEUED;
+            queue.add(index);
+            if ((flags[index] & STALE) == 0) {
+                nonStale += 1;
+            }
+        } else if ((old & STALE) == 0 && (paint & STALE) != 0) {
+            nonStale -= 1;
+        }
+    }
+
+    /**
+     * @return the generation of the commit at INDEX.
+     */
+    private static int generation(int index) {
+        return link(index, 2);
+    }
+
+    /**
+     * @return the cached FIELD of the commit at INDEX, reading its record on first use.
+     */
+    private static int link(int index, int field) {
+        int base = index * FIELDS;
+        if (links[base + 2] == UNREAD) {
+            links[base] = cachedGraph.parent(index);
+            links[base + 1] = cachedGraph.secondParent(index);
+            links[base + 2] = cachedGraph.generation(index);
+        }
+        return links[base + field];
+    }
+
+    /**
+     * Make the cache cover every commit of GRAPH, keeping what was read before.
+     */
+    private static void loadCache(CommitGraph graph) {
+        if (graph != cachedGraph) {
+            cachedGraph = graph;
+            links = new int[0];
+        }
+        int size = graph.size() * FIELDS;
+        if (links.length < size) {
+            int old = links.length;
+            links = Arrays.copyOf(links, size);
+            Arrays.fill(links, old, size, UNREAD);
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import static gitlet.Repository.GITLET_DIR;
+import static gitlet.Utils.*;
+
+/**
+ * An inverted index of commit messages, so that `find` does not read every commit.
+ * The index file holds postings sorted by key, each a key and the commit graph index of
+ * a commit whose message has that key. A message has two kinds of keys:
+ *   - its exact-message key, made of the hash of the whole message, and
+ *   - one trigram key for every three consecutive characters in it.
+ * Exact matches look up one key; substring matches intersect the postings of all trigrams
+ * of the text. Hash collisions and trigrams found out of order only yield extra candidates,
+ * so every candidate is checked against its message in the commit graph.
+ *
+ * The index covers the first `covered` commits of the graph. Newer commits are searched
+ * directly until there are MERGE_LIMIT of them, when they are merged into the index.
+ */
+public class MessageIndex {
+    /** The message index under the .gitlet directory. */
+    public static final File INDEX_FILE = join(GITLET_DIR, "message-index");
+
+    /** Magic number at the start of the index file. */
+    private static final int MAGIC = 0x4d534731;  // "MSG1"
+    /** Length of the header: magic, covered commits, and number of postings. */
+    private static final int HEADER = 3 * Integer.BYTES;
+    /** Length of one posting: a key and a commit graph index. */
+    private static final int POSTING = Long.BYTES + Integer.BYTES;
+    /** Number of commits past the index that triggers a merge. */
+    private static final int MERGE_LIMIT = 1024;
+    /** Shortest text that has a trigram. */
+    private static final int GRAM = 3;
+
+    /** Tag of trigram keys, above the 48 bits of three characters. */
+    private static final long TRIGRAM = 1L << 48;
+    /** Tag of exact-message keys, above the 32 bits of the message hash. */
+    private static final long EXACT = 2L << 48;
+
+    /**
+     * Merge the commits added to the graph since the index was written, once there are
+     * enough of them. Called after each new commit. The index is checked again holding its
+     * lock, so that commands committing at the same time do not both rewrite it.
+     */
+    public static void update() {
+        CommitGraph graph = CommitGraph.open();
+        if (graph.size() - covered() >= MERGE_LIMIT) {
+            Locks.whileHolding(INDEX_FILE, () -> {
+                if (graph.size() - covered() >= MERGE_LIMIT) {
+                    merge(graph);
+                }
+            });
+        }
+    }
+
+    /**
+     * Rebuild the message index from all commits.
+     */
+    public static void rebuild() {
+        CommitGraph graph = CommitGraph.open();
+        graph.addAll(Commit.readAllCommits());
+        Locks.whileHolding(INDEX_FILE, () -> {
+            INDEX_FILE.delete();
+            merge(graph);
+        });
+    }
+
+    /**
+     * @return the sorted IDs of all commits whose message is exactly MESSAGE.
+     */
+    public static List<String> findExact(String message) {
+        CommitGraph graph = completeGraph();
+        ByteBuffer index = open();
+        List<Integer> candidates = new ArrayList<>(postings(index, exactKey(message)));
+        candidates.addAll(unindexed(index, graph));
+        return matching(graph, candidates, m -> m.equals(message));
+    }
+
+    /**
+     * @return the sorted IDs of all commits whose message contains TEXT.
+     */
+    public static List<String> findContaining(String text) {
+        CommitGraph graph = completeGraph();
+        ByteBuffer index = open();
+        List<Integer> candidates;
+        if (text.length() < GRAM) {
+            candidates = new ArrayList<>();
+            for (int i = 0; i < graph.size(); i += 1) {
+                candidates.add(i);
+            }
+        } else {
+            List<List<Integer>> lists = new ArrayList<>();
+            for (long key : trigramKeys(text)) {
+                lists.add(postings(index, key));
+            }
+            lists.sort((a, b) -> a.size() - b.size());
+            Set<Integer> common = new LinkedHashSet<>(lists.get(0));
+            for (List<Integer> list : lists.subList(1, lists.size())) {
+                common.retainAll(new TreeSet<>(list));
+            }
+            candidates = new ArrayList<>(common);
+            candidates.addAll(unindexed(index, graph));
+        }
+        return matching(graph, candidates, m -> m.contains(text));
+    }
+
+    /**
+     * @return the commit graph, after adding the commits copied in by remote pushes,
+     * the only ones saved without being indexed at once.
+     */
+    private static CommitGraph completeGraph() {
+        Commit.indexIncoming();
+        return CommitGraph.open();
+    }
+
+    /**
+     * @return the sorted IDs of the candidate commits whose message passes TEST.
+     */
+    private static List<String> matching(CommitGraph graph, List<Integer> candidates,
+                                         Predicate<String> test) {
+        return candidates.stream()
+                .distinct()
+                .filter(i -> test.test(graph.message(i)))
+                .map(graph::id)
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @return the graph indexes of the commits not covered by the index.
+     */
+    private static List<Integer> unindexed(ByteBuffer index, CommitGraph graph) {
+        List<Integer> result = new ArrayList<>();
+        for (int i = covered(index); i < graph.size(); i += 1) {
+            result.add(i);
+        }
+        return result;
+    }
+
+    /**
+     * @return the graph indexes posted under KEY, in ascending order.
+     */
+    private static List<Integer> postings(ByteBuffer index, long key) {
+        List<Integer> result = new ArrayList<>();
+        if (index == null) {
+            return result;
+        }
+        int count = index.getInt(2 * Integer.BYTES);
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (index.getLong(HEADER + mid * POSTING) < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = lo; i < count && index.getLong(HEADER + i * POSTING) == key; i += 1) {
+            result.add(index.getInt(HEADER + i * POSTING + Long.BYTES));
+        }
+        return result;
+    }
+
+    /**
+     * @return the keys of MESSAGE: its exact-message key and its distinct trigram keys.
+     */
+    private static long[] keysOf(String message) {
+        long[] trigrams = trigramKeys(message);
+        long[] keys = Arrays.copyOf(trigrams, trigrams.length + 1);
+        keys[trigrams.length] = exactKey(message);
+        return keys;
+    }
+
+    /**
+     * @return the exact-message key of MESSAGE.
+     */
+    private static long exactKey(String message) {
+        return EXACT | (message.hashCode() & 0xffffffffL);
+    }
+
+    /**
+     * @return the distinct trigram keys of TEXT, each made of three 16-bit characters.
+     */
+    private static long[] trigramKeys(String text) {
+        Set<Long> keys = new TreeSet<>();
+        for (int i = 0; i + GRAM <= text.length(); i += 1) {
+            keys.add(TRIGRAM | (long) text.charAt(i) << 32 | (long) text.charAt(i + 1) << 16
+                     | text.charAt(i + 2));
+        }
+        return keys.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * Rewrite the index with the postings of all commits in the graph.
+     * The postings already in the index are kept in order, and those of the newer commits are
+     * sorted and merged in, so the cost is linear in the size of the index.
+     */
+    private static void merge(CommitGraph graph) {
+        ByteBuffer index = open();
+        int oldCount = (index == null) ? 0 : index.getInt(2 * Integer.BYTES);
+        List<long[]> added = new ArrayList<>();
+        for (int i = covered(index); i < graph.size(); i += 1) {
+            for (long key : keysOf(graph.message(i))) {
+                added.add(new long[] {key, i});
+            }
+        }
+        added.sort((a, b) -> (a[0] != b[0]) ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+
+        try {
+            File temp = File.createTempFile("message-index", ".tmp", GITLET_DIR);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(temp.toPath())))) {
+                out.writeInt(MAGIC);
+                out.writeInt(graph.size());
+                out.writeInt(oldCount + added.size());
+                int next = 0;
+                for (int i = 0; i < oldCount; i += 1) {
+                    long key = index.getLong(HEADER + i * POSTING);
+                    // new postings go after old ones with the same key, as their commits are newer
+                    while (next < added.size() && added.get(next)[0] < key) {
+                        writePosting(out, added.get(next++));
+                    }
+                    out.writeLong(key);
+                    out.writeInt(index.getInt(HEADER + i * POSTING + Long.BYTES));
+                }
+                while (next < added.size()) {
+                    writePosting(out, added.get(next++));
+                }
+            }
+            Files.move(temp.toPath(), INDEX_FILE.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Write one posting held as {key, graph index}.
+     */
+    private static void writePosting(DataOutputStream out, long[] posting) throws IOException {
+        out.writeLong(posting[0]);
+        out.writeInt((int) posting[1]);
+    }
+
+    /**
+     * @return the mapped index file, or null if there is none or it is not a valid index.
+     */
+    private static ByteBuffer open() {
+        if (!INDEX_FILE.isFile() || INDEX_FILE.length() < HEADER) {
+            return null;
+        }
+        ByteBuffer index = mapFile(INDEX_FILE);
+        return (index.getInt(0) == MAGIC) ? index : null;
+    }
+
+    /**
+     * @return the number of graph commits covered by the index file.
+     */
+    private static int covered() {
+        return covered(open());
+    }
+
+    /**
+     * @return the number of graph commits covered by the mapped INDEX, 0 if there is none.
+     */
+    private static int covered(ByteBuffer index) {
+        return (index == null) ? 0 : index.getInt(Integer.BYTES);
+    }
+}
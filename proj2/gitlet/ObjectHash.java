@@ -0,0 +1,48 @@
+package gitlet;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import static gitlet.Repository.GITLET_DIR;
+
+/**
+ * The hash algorithm that names the objects of the repository: SHA-1, unless the repository
+ * was created with `init --hash sha256`. Every ID in a repository depends on its algorithm,
+ * so it is recorded in the format file when the repository is created and never changes.
+ * It is read once per process, the first time an object ID is needed, and fixes the length
+ * of IDs in every binary file of the repository.
+ */
+public class ObjectHash {
+    /** The name of the algorithm, as recorded in the format file. */
+    public static final String ALGORITHM = RepositoryFormat.hashAlgorithm(GITLET_DIR);
+    /** The length of a complete object ID in bytes. */
+    public static final int ID_BYTES = newDigest().getDigestLength();
+    /** The length of a complete object ID as a hexadecimal numeral. */
+    public static final int ID_LENGTH = 2 * ID_BYTES;
+
+    /** The digest of each thread, reused for every hash it computes. */
+    private static final ThreadLocal<MessageDigest> DIGESTS =
+            ThreadLocal.withInitial(ObjectHash::newDigest);
+
+    /**
+     * @return the reset digest of the current thread. It must not be shared with another
+     * thread, nor used for a second hash before the first one is complete.
+     */
+    public static MessageDigest digest() {
+        MessageDigest md = DIGESTS.get();
+        md.reset();
+        return md;
+    }
+
+    /**
+     * @return a new digest of the algorithm.
+     */
+    private static MessageDigest newDigest() {
+        String name = RepositoryFormat.HASH_ALGORITHMS.get(ALGORITHM);
+        try {
+            return MessageDigest.getInstance(name);
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support " + name);
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import static gitlet.Repository.GITLET_DIR;
+import static gitlet.Utils.*;
+
+/**
+ * What the receiving side of a fetch or push already has, so that the sending side can tell
+ * which objects to send in one pass over its own history: a Bloom filter of every commit and
+ * blob ID the receiver holds, built from one listing of its objects and packs, and the exact
+ * commits its branches point at. A commit at a tip is present with all its ancestors. An ID
+ * the filter rules out is certainly missing and needs no lookup. The IDs the filter may hold
+ * are assumed present, then all of them are checked with the receiver in one batch, and the
+ * walk is repeated with the answers until no ID is left unchecked; since the filter is rarely
+ * wrong, that is seldom more than once.
+ *
+ * A summary can be sent over a connection, in which case the batch of IDs to check is sent
+ * back to the receiver.
+ */
+public class ObjectSummary {
+    /** Every object ID of the receiver, and a few that it lacks. */
+    private final BloomFilter objects;
+    /** The commits the branches of the receiver point at. */
+    private final Set<String> tips;
+    /** Given IDs the filter may hold, returns those the receiver really lacks. */
+    private final Function<List<String>, Set<String>> lacking;
+
+    /**
+     * The objects a receiver lacks, in the order they must be saved: blobs first, then
+     * commits with parents before their children, so that nothing is saved before the
+     * objects it refers to.
+     */
+    public static class Missing {
+        /** The IDs of the missing blobs. */
+        public final List<String> blobs;
+        /** The missing commits, parents first. */
+        public final List<Commit> commits;
+
+        Missing(List<String> blobs, List<Commit> commits) {
+            this.blobs = blobs;
+            this.commits = commits;
+        }
+    }
+
+    private ObjectSummary(BloomFilter objects, Set<String> tips,
+                          Function<List<String>, Set<String>> lacking) {
+        this.objects = objects;
+        this.tips = tips;
+        this.lacking = lacking;
+    }
+
+    /**
+     * @return the summary of the local repository, for a fetch.
+     */
+    public static ObjectSummary local() {
+        Set<String> tips = new HashSet<>();
+        for (String branch : Branch.getAllBranches()) {
+            tips.add(Branch.readCurrentBranch(branch).getRecentCommit());
+        }
+        return new ObjectSummary(filterOf(GITLET_DIR), tips, ids -> lackingOf(ids,
+                id -> Commit.checkCommitExists(id) || Blob.checkBlobExists(id)));
+    }
+
+    /**
+     * @return the summary of the repository at PATH, for a push to it or a fetch served by it.
+     */
+    public static ObjectSummary remote(String path) {
+        Set<String> tips = new HashSet<>();
+        for (String branch : Branch.allRemoteBranches(path)) {
+            tips.add(Branch.remoteCurrentBranch(path, branch).getRecentCommit());
+        }
+        return new ObjectSummary(filterOf(new File(path)), tips, ids -> lackingOf(ids,
+                id -> Commit.checkRemoteCommitExists(path, id)
+                      || Blob.checkRemoteBlobExists(path, id)));
+    }
+
+    /**
+     * Write the tips and filter of this summary to OUT.
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(tips.size());
+        for (String tip : tips) {
+            out.writeUTF(tip);
+        }
+        objects.write(out);
+    }
+
+    /**
+     * @return a summary read from IN, whose doubtful IDs are checked by LACKING.
+     */
+    public static ObjectSummary read(DataInputStream in,
+                                     Function<List<String>, Set<String>> lacking)
+            throws IOException {
+        Set<String> tips = new HashSet<>();
+        for (int i = in.readInt(); i > 0; i -= 1) {
+            tips.add(in.readUTF());
+        }
+        return new ObjectSummary(BloomFilter.read(in), tips, lacking);
+    }
+
+    /**
+     * @return the commits reachable from HEAD and their blobs that the receiver lacks.
+     * @param head the commit to be sent.
+     * @param read reads a commit from the sender.
+     */
+    public Missing missingFrom(String head, Function<String, Commit> read) {
+        Set<String> confirmed = new HashSet<>();
+        Set<String> absent = new HashSet<>();
+        Map<String, Commit> commits = new HashMap<>();
+        Function<String, Commit> cachedRead = id -> commits.computeIfAbsent(id, read);
+        while (true) {
+            Set<String> doubtful = new LinkedHashSet<>();
+            Predicate<String> present = id -> {
+                if (tips.contains(id) || confirmed.contains(id)) {
+                    return true;
+                }
+                if (absent.contains(id) || !objects.mightContain(id)) {
+                    return false;
+                }
+                doubtful.add(id);
+                return true;
+            };
+            List<Commit> missingCommits = missingAncestors(head, present, cachedRead);
+            List<String> missingBlobs = new ArrayList<>();
+            Set<String> seen = new HashSet<>();
+            for (Commit commit : missingCommits) {
+                for (String blobID : commit.commitMapping().values()) {
+                    if (seen.add(blobID) && !present.test(blobID)) {
+                        missingBlobs.add(blobID);
+                    }
+                }
+            }
+            if (doubtful.isEmpty()) {
+                return new Missing(missingBlobs, missingCommits);
+            }
+            Set<String> lacked = lacking.apply(new ArrayList<>(doubtful));
+            for (String id : doubtful) {
+                (lacked.contains(id) ? absent : confirmed).add(id);
+            }
+        }
+    }
+
+    /**
+     * Walk back from a commit through all its parents, stopping at commits that are present.
+     * @param commitID the commit to start from.
+     * @param present tells whether a commit is already at the destination.
+     * @param read reads a commit from the source.
+     * @return the commits that are not present, ordered so that parents come before children.
+     */
+    private static List<Commit> missingAncestors(String commitID, Predicate<String> present,
+                                                 Function<String, Commit> read) {
+        List<Commit> missing = new ArrayList<>();
+        if (present.test(commitID)) {
+            return missing;
+        }
+        Set<String> visited = new HashSet<>();
+        Deque<Commit> pending = new ArrayDeque<>();
+        visited.add(commitID);
+        pending.push(read.apply(commitID));
+        while (!pending.isEmpty()) {
+            Commit next = pending.peek();
+            boolean parentsDone = true;
+            for (String parent : new String[] {next.parentCommit(), next.secondParentCommit()}) {
+                if (!parent.isEmpty() && !visited.contains(parent) && !present.test(parent)) {
+                    visited.add(parent);
+                    pending.push(read.apply(parent));
+                    parentsDone = false;
+                }
+            }
+            if (parentsDone) {
+                missing.add(pending.pop());
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * @return the IDs among IDS for which HAS is false.
+     */
+    private static Set<String> lackingOf(List<String> ids, Predicate<String> has) {
+        Set<String> result = new HashSet<>();
+        for (String id : ids) {
+            if (!has.test(id)) {
+                result.add(id);
+            }
+        }
+        return Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * @return a filter of every commit and blob in the repository in GITLETDIR.
+     */
+    private static BloomFilter filterOf(File gitletDir) {
+        List<String> ids = Pack.listObjects(gitletDir);
+        ids.addAll(looseIDsIn(join(gitletDir, "logs")));
+        ids.addAll(looseIDsIn(join(gitletDir, "objects")));
+        BloomFilter filter = new BloomFilter(ids.size());
+        for (String id : ids) {
+            filter.add(id);
+        }
+        return filter;
+    }
+
+    /**
+     * @return the IDs of the loose objects in DIR, in shards or, in a repository that was
+     * not upgraded yet, directly in DIR.
+     */
+    private static List<String> looseIDsIn(File dir) {
+        List<String> ids = new ArrayList<>(shardedIDsIn(dir));
+        List<String> flat = plainFilenamesIn(dir);
+        if (flat != null) {
+            for (String name : flat) {
+                if (name.length() == ObjectHash.ID_LENGTH) {
+                    ids.add(name);
+                }
+            }
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,429 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import static gitlet.Repository.GITLET_DIR;
+import static gitlet.Utils.*;
+
+/**
+ * A pack bundles many objects into a single file, so that a repository with a large number
+ * of blobs and commits does not pay for one file per object.
+ * Each pack `pack-[name].pack` holds the stored bytes of its objects back to back, and its
+ * companion `pack-[name].idx` holds the sorted object IDs behind a fan-out table, followed
+ * by the type and the pack offset of each object. Both files are memory-mapped for reading.
+ * Packs are written once and never modified; `repack` only adds new ones, and `gc` replaces
+ * a pack holding unreachable objects by a new one without them.
+ */
+public class Pack {
+    /** The packs folder under the .gitlet directory. */
+    public static final File PACK_DIR = join(GITLET_DIR, "packs");
+
+    /** Object type of a blob. */
+    public static final byte BLOB = 1;
+    /** Object type of a commit. */
+    public static final byte COMMIT = 2;
+
+    /** Magic number at the start of every pack file. */
+    private static final int PACK_MAGIC = 0x504b3031;  // "PK01"
+    /** Magic number at the start of every index file. */
+    private static final int INDEX_MAGIC = 0x49583031;  // "IX01"
+    /** A pack is mapped as a single buffer, which limits its size. */
+    private static final long MAX_PACK_SIZE = Integer.MAX_VALUE;
+    /** Size of the per-object header in a pack: a type byte and a length. */
+    private static final int ENTRY_HEADER = 1 + Integer.BYTES;
+
+    /** Packs opened so far, keyed by the .gitlet directory they belong to. */
+    private static final Map<File, List<Pack>> OPEN_PACKS = new HashMap<>();
+
+    /** The index file of the pack. */
+    private final File indexFile;
+    /** The mapped pack file. */
+    private final ByteBuffer pack;
+    /** The mapped index file. */
+    private final ByteBuffer index;
+    /** The sorted IDs in the index. */
+    private final FanoutTable ids;
+    /** Offset of the type table in the index. */
+    private final int typesStart;
+    /** Offset of the offset table in the index. */
+    private final int offsetsStart;
+
+    /**
+     * Open a pack by mapping its index and data file.
+     * @param indexFile the `.idx` file of the pack.
+     */
+    private Pack(File indexFile) {
+        File packFile = packFileOf(indexFile);
+        this.indexFile = indexFile;
+        this.index = mapFile(indexFile);
+        this.pack = mapFile(packFile);
+        if (index.getInt(0) != INDEX_MAGIC || pack.getInt(0) != PACK_MAGIC) {
+            throw error("Corrupt pack %s.", packFile.getName());
+        }
+        this.ids = new FanoutTable(index, Integer.BYTES, ObjectHash.ID_BYTES);
+        this.typesStart = ids.end();
+        this.offsetsStart = typesStart + ids.size();
+    }
+
+    /**
+     * @return the stored bytes of the object in the local repository, or null if no pack has it.
+     */
+    public static byte[] read(String objectID) {
+        return read(GITLET_DIR, objectID);
+    }
+
+    /**
+     * @return the stored bytes of the object in the given repository, or null if no pack has it.
+     * @param gitletDir the .gitlet directory to look in.
+     * @param objectID the SHA-1 of the object.
+     */
+    public static byte[] read(File gitletDir, String objectID) {
+        byte[] id = toID(objectID);
+        if (id == null) {
+            return null;
+        }
+        for (Pack p : packsIn(gitletDir)) {
+            int position = p.ids.find(id);
+            if (position >= 0) {
+                return p.entry(position);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true if some pack of the local repository contains the object.
+     */
+    public static boolean contains(String objectID) {
+        return contains(GITLET_DIR, objectID);
+    }
+
+    /**
+     * @return true if some pack of the given repository contains the object.
+     */
+    public static boolean contains(File gitletDir, String objectID) {
+        byte[] id = toID(objectID);
+        if (id == null) {
+            return false;
+        }
+        for (Pack p : packsIn(gitletDir)) {
+            if (p.ids.find(id) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Mark the pack of the local repository holding the object as used now, so that a `gc`
+     * running meanwhile does not drop the object from it.
+     * @return true if some pack contains the object.
+     */
+    public static boolean freshen(String objectID) {
+        byte[] id = toID(objectID);
+        if (id == null) {
+            return false;
+        }
+        for (Pack p : packsIn(GITLET_DIR)) {
+            if (p.ids.find(id) >= 0) {
+                packFileOf(p.indexFile).setLastModified(System.currentTimeMillis());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the IDs of all packed objects of the given type in the local repository.
+     */
+    public static List<String> listObjects(byte type) {
+        List<String> result = new ArrayList<>();
+        for (Pack p : packsIn(GITLET_DIR)) {
+            for (int i = 0; i < p.ids.size(); i += 1) {
+                if (p.index.get(p.typesStart + i) == type) {
+                    result.add(bytesToHex(p.ids.idAt(i)));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the IDs of all packed objects of any type in the given repository.
+     */
+    public static List<String> listObjects(File gitletDir) {
+        List<String> result = new ArrayList<>();
+        for (Pack p : packsIn(gitletDir)) {
+            for (int i = 0; i < p.ids.size(); i += 1) {
+                result.add(bytesToHex(p.ids.idAt(i)));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Handle the `repack` command.
+     * Fold all loose blobs and commits into new packs, then delete the loose copies.
+     * Objects too large to fit in a pack are left loose, and so are those larger than
+     * {@link Blob#streamThreshold}, so that they can still be checked out by streaming.
+     */
+    public static void repack() {
+        List<String> blobs = shardedIDsIn(Blob.OBJECT_DIR);
+        List<String> commits = shardedIDsIn(Commit.COMMIT_DIR);
+        List<String> looseIDs = new ArrayList<>();
+        Map<String, File> looseFiles = new HashMap<>();
+        Map<String, Byte> looseTypes = new HashMap<>();
+        collectLoose(blobs, Blob.OBJECT_DIR, BLOB, looseIDs, looseFiles, looseTypes);
+        collectLoose(commits, Commit.COMMIT_DIR, COMMIT, looseIDs, looseFiles, looseTypes);
+        if (looseIDs.isEmpty()) {
+            return;
+        }
+        Collections.sort(looseIDs);
+        PACK_DIR.mkdir();
+
+        long streamThreshold = Blob.streamThreshold();
+        List<File> packed = new ArrayList<>();
+        PackWriter writer = new PackWriter();
+        for (String id : looseIDs) {
+            File loose = looseFiles.get(id);
+            if (ENTRY_HEADER + loose.length() > MAX_PACK_SIZE - 2 * Integer.BYTES
+                    || loose.length() > streamThreshold) {
+                continue;
+            }
+            if (!writer.fits(loose.length())) {
+                writer.finish();
+                writer = new PackWriter();
+            }
+            writer.add(id, looseTypes.get(id), readContents(loose));
+            packed.add(loose);
+        }
+        writer.finish();
+        OPEN_PACKS.remove(GITLET_DIR);
+
+        for (File loose : packed) {
+            loose.delete();
+        }
+    }
+
+    /**
+     * Rewrite each pack of the local repository that holds objects KEEP rejects, copying the
+     * others to a new pack before deleting the old one. Packs used at or after FRESHSINCE,
+     * in milliseconds, are left as they are.
+     * @return the number of objects dropped.
+     */
+    public static int prune(Predicate<String> keep, long freshSince) {
+        int dropped = 0;
+        for (Pack p : packsIn(GITLET_DIR)) {
+            if (packFileOf(p.indexFile).lastModified() >= freshSince) {
+                continue;
+            }
+            List<Integer> kept = new ArrayList<>();
+            for (int i = 0; i < p.ids.size(); i += 1) {
+                if (keep.test(bytesToHex(p.ids.idAt(i)))) {
+                    kept.add(i);
+                }
+            }
+            if (kept.size() == p.ids.size()) {
+                continue;
+            }
+            PackWriter writer = new PackWriter();
+            for (int i : kept) {
+                byte[] data = p.entry(i);
+                if (!writer.fits(data.length)) {
+                    writer.finish();
+                    writer = new PackWriter();
+                }
+                writer.add(bytesToHex(p.ids.idAt(i)), p.index.get(p.typesStart + i), data);
+            }
+            writer.finish();
+            // the index goes first, so that a visible index always has its pack
+            p.indexFile.delete();
+            packFileOf(p.indexFile).delete();
+            dropped += p.ids.size() - kept.size();
+        }
+        OPEN_PACKS.remove(GITLET_DIR);
+        return dropped;
+    }
+
+    /**
+     * Add the loose objects with the given IDs in the sharded directory DIR to the repack
+     * work list, skipping any that are already packed.
+     */
+    private static void collectLoose(List<String> looseIDs, File dir, byte type,
+                                     List<String> ids, Map<String, File> files,
+                                     Map<String, Byte> types) {
+        for (String id : looseIDs) {
+            File loose = shardFile(dir, id);
+            if (contains(id)) {
+                loose.delete();
+            } else if (toID(id) != null && !files.containsKey(id)) {
+                ids.add(id);
+                files.put(id, loose);
+                types.put(id, type);
+            }
+        }
+    }
+
+    /**
+     * @return the stored bytes of the object at POSITION in the index.
+     */
+    private byte[] entry(int position) {
+        int offset = index.getInt(offsetsStart + position * Integer.BYTES);
+        int length = pack.getInt(offset + 1);
+        byte[] data = new byte[length];
+        ByteBuffer view = pack.duplicate();
+        view.position(offset + ENTRY_HEADER);
+        view.get(data);
+        return data;
+    }
+
+    /**
+     * Forget all open packs, so that the packs of every repository are listed again
+     * on next use.
+     */
+    public static void closeAll() {
+        OPEN_PACKS.clear();
+    }
+
+    /**
+     * @return the packs of the given repository, opening them on first use.
+     */
+    private static List<Pack> packsIn(File gitletDir) {
+        List<Pack> packs = OPEN_PACKS.get(gitletDir);
+        if (packs == null) {
+            packs = new ArrayList<>();
+            File[] indexes = join(gitletDir, "packs")
+                    .listFiles((dir, name) -> name.startsWith("pack-") && name.endsWith(".idx"));
+            if (indexes != null) {
+                for (File indexFile : indexes) {
+                    packs.add(new Pack(indexFile));
+                }
+            }
+            OPEN_PACKS.put(gitletDir, packs);
+        }
+        return packs;
+    }
+
+    /**
+     * @return the pack data file belonging to the given index file.
+     */
+    private static File packFileOf(File indexFile) {
+        String name = indexFile.getName();
+        return join(indexFile.getParentFile(), name.substring(0, name.length() - 4) + ".pack");
+    }
+
+    /**
+     * @return the raw bytes of a hexadecimal object ID, or null if it is not a complete ID.
+     */
+    private static byte[] toID(String objectID) {
+        if (objectID.length() != ObjectHash.ID_LENGTH || !objectID.matches("[0-9a-f]+")) {
+            return null;
+        }
+        return hexToBytes(objectID);
+    }
+
+    /**
+     * Writes one pack and its index. Objects must be added in ascending ID order.
+     */
+    private static class PackWriter {
+        /** The pack being written, renamed into place by finish(). */
+        private final File tempFile;
+        /** The stream writing the pack. */
+        private final DataOutputStream out;
+        /** IDs of the objects written so far. */
+        private final List<byte[]> ids = new ArrayList<>();
+        /** Types of the objects written so far. */
+        private final List<Byte> types = new ArrayList<>();
+        /** Pack offsets of the objects written so far. */
+        private final List<Integer> offsets = new ArrayList<>();
+        /** Number of bytes written to the pack. */
+        private long size;
+
+        PackWriter() {
+            try {
+                tempFile = File.createTempFile("pack-", ".tmp", PACK_DIR);
+                out = new DataOutputStream(new BufferedOutputStream(
+                        Files.newOutputStream(tempFile.toPath())));
+                out.writeInt(PACK_MAGIC);
+                out.writeInt(0);  // reserved
+                size = 2 * Integer.BYTES;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /**
+         * @return true if an object of the given length still fits in this pack.
+         */
+        boolean fits(long length) {
+            return size + ENTRY_HEADER + length <= MAX_PACK_SIZE;
+        }
+
+        /**
+         * Append one object to the pack.
+         */
+        void add(String id, byte type, byte[] data) {
+            try {
+                ids.add(hexToBytes(id));
+                types.add(type);
+                offsets.add((int) size);
+                out.writeByte(type);
+                out.writeInt(data.length);
+                out.write(data);
+                size += ENTRY_HEADER + data.length;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /**
+         * Close the pack, write its index, and move both into place.
+         * The index is renamed last, so a visible index always has a complete pack.
+         */
+        void finish() {
+            try {
+                out.close();
+                if (ids.isEmpty()) {
+                    tempFile.delete();
+                    return;
+                }
+                StringBuilder allIDs = new StringBuilder();
+                for (byte[] id : ids) {
+                    allIDs.append(bytesToHex(id));
+                }
+                String name = "pack-" + sha1(allIDs.toString());
+                Files.move(tempFile.toPath(), join(PACK_DIR, name + ".pack").toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+
+                File tempIndex = File.createTempFile("idx-", ".tmp", PACK_DIR);
+                try (DataOutputStream idx = new DataOutputStream(new BufferedOutputStream(
+                        Files.newOutputStream(tempIndex.toPath())))) {
+                    idx.writeInt(INDEX_MAGIC);
+                    FanoutTable.write(idx, ids);
+                    for (byte type : types) {
+                        idx.writeByte(type);
+                    }
+                    for (int offset : offsets) {
+                        idx.writeInt(offset);
+                    }
+                }
+                Files.move(tempIndex.toPath(), join(PACK_DIR, name + ".idx").toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+}
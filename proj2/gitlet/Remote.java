@@ -4,7 +4,6 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
 import static gitlet.Repository.GITLET_DIR;
 import static gitlet.Repository.merge;
@@ -25,7 +24,8 @@ public class Remote {
     public static void addRemote(String remoteName, String directory) {
         checkRemoteName(remoteName);
         checkDirectory(directory);
-        String remotePath = directory.replace("/", File.separator);
+        String remotePath = Server.isURL(directory)
+                            ? directory : directory.replace("/", File.separator);
         File remoteFile = join(REMOTE_DIR, remoteName);
         writeContents(remoteFile, remotePath);
     }
@@ -44,51 +44,116 @@ public class Remote {
     public static void push(String remoteName, String remoteBranch) {
         validateRemoteExists(remoteName);
         String path = remoteGitletPath(remoteName);
+        if (Server.isURL(path)) {
+            pushToServer(path, remoteBranch);
+            return;
+        }
         checkRemoteGitInit(path);
+        Locks.acquire(new File(path), Branch.remoteRefFile(path, remoteBranch));
 
         // If the Gitlet system on the remote machine exists but does not have the input branch,
         // then simply add the branch to the remote Gitlet.
         Branch localCurrBranch = Branch.readCurrentBranch(Head.getHeadState());
+        String localHead = localCurrBranch.getRecentCommit();
         if (!Branch.allRemoteBranches(path).contains(remoteBranch)) {
+            copyMissingCommits(localHead, path);
             Branch.saveRemoteBranch(path, localCurrBranch);
             return;
         }
 
+        // the remote head must be in the history of the local head
         Branch remoteCurrBranch = Branch.remoteCurrentBranch(path, remoteBranch);
-        String remoteCurrCommit = remoteCurrBranch.getRecentCommit();
-        List<String> localCommitHistory = localCurrBranch.getCommits();
-        int index = localCommitHistory.indexOf(remoteCurrCommit);
-        if (index == -1) {
+        checkFastForward(remoteCurrBranch.getRecentCommit(), localHead);
+
+        copyMissingCommits(localHead, path);
+        remoteCurrBranch.setRecentCommit(localHead);
+        Branch.saveRemoteBranch(path, remoteCurrBranch);
+    }
+
+    /**
+     * Push the current branch to a repository served at URL. The server moves its branch
+     * only if it still points at the commit read here, so that concurrent pushes cannot
+     * overwrite each other.
+     */
+    private static void pushToServer(String url, String remoteBranch) {
+        String localHead = Branch.readCurrentBranch(Head.getHeadState()).getRecentCommit();
+        try (RemoteConnection remote = RemoteConnection.open(url)) {
+            String remoteHead = remote.ref(remoteBranch);
+            if (remoteHead != null) {
+                checkFastForward(remoteHead, localHead);
+            }
+            ObjectSummary.Missing missing = remote.summary()
+                    .missingFrom(localHead, Commit::readCommit);
+            remote.push(remoteBranch, remoteHead, localHead, missing);
+        }
+    }
+
+    /**
+     * Exit with an error unless the remote head is in the history of the local head.
+     */
+    private static void checkFastForward(String remoteHead, String localHead) {
+        CommitGraph graph = CommitGraph.open();
+        if (!Commit.checkCommitExists(remoteHead)
+                || !graph.isAncestor(graph.indexOf(remoteHead), graph.indexOf(localHead))) {
             exitWithError("Please pull down remote changes before pushing.");
         }
+    }
 
-        for (int i = index - 1; i >= 0; i -= 1) {
-            Commit next = Commit.readCommit(localCommitHistory.get(i));
-            copyCommit(next, path);
-            remoteCurrBranch.addCommit(next.hashValue());
+    /**
+     * Copy the given local commit and all its ancestors that the remote machine lacks,
+     * with the blobs it lacks, blobs first and parents before their children.
+     */
+    private static void copyMissingCommits(String commitID, String path) {
+        long start = System.nanoTime();
+        ObjectSummary.Missing missing = ObjectSummary.remote(path)
+                .missingFrom(commitID, Commit::readCommit);
+        LocalTransfer transfer = new LocalTransfer(new File(path));
+        transfer.copyBlobs(missing.blobs, id -> shardFile(Blob.OBJECT_DIR, id));
+        long bytes = transfer.bytes();
+        for (String blobID : transfer.uncopied()) {
+            bytes += saveRemoteBlob(path, blobID, Blob.readBlob(blobID));
         }
-        Branch.saveRemoteBranch(path, remoteCurrBranch);
+        for (Commit commit : missing.commits) {
+            bytes += saveRemoteCommit(path, commit);
+        }
+        reportTransfer(missing.blobs.size() + missing.commits.size(), bytes, start);
     }
 
     /**
-     * Copy one commit from local directory to remote server.
-     * @param commit the local commit to be copied.
-     * @param path the path to remote gitlet.
+     * Save a blob in the repository at PATH, which is not the local one.
+     * @return the number of bytes of its content.
      */
-    private static void copyCommit(Commit commit, String path) {
-        File remoteCommitDir = join(path, "logs");
-        File remoteBlobDir = join(path, "objects");
+    static long saveRemoteBlob(String path, String blobID, byte[] content) {
+        File remoteBlob = shardFile(join(path, "objects"), blobID);
+        remoteBlob.getParentFile().mkdirs();
+        writeAtomically(remoteBlob, BlobFormat.encode(content), new File(path));
+        return content.length;
+    }
 
-        Map<String, String> commitMap = commit.commitMapping();
-        for (String file : commitMap.keySet()) {
-            String blobID = commitMap.get(file);
-            File remoteBlob = join(remoteBlobDir, blobID);
-            if (!remoteBlob.exists()) {
-                byte[] content = Blob.readBlob(blobID);
-                writeContents(remoteBlob, (Object) content);
-            }
+    /**
+     * Save a commit in the repository at PATH, which is not the local one, and log it for
+     * that repository to index.
+     * @return the number of bytes of its encoded form.
+     */
+    static long saveRemoteCommit(String path, Commit commit) {
+        byte[] encoded = commit.encode();
+        File remoteCommit = shardFile(Commit.remoteCommitDir(path), commit.hashValue());
+        remoteCommit.getParentFile().mkdirs();
+        writeAtomically(remoteCommit, encoded, new File(path));
+        Commit.logIncoming(path, commit.hashValue());
+        return encoded.length;
+    }
+
+    /**
+     * Print the number of objects and bytes sent, and the rate since START in nanoseconds,
+     * if `transfer.report` is set.
+     */
+    static void reportTransfer(int objects, long bytes, long start) {
+        if (Config.getBoolean(Config.TRANSFER_REPORT)) {
+            double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+            message("Transferred %d objects, %d bytes in %.2f s (%.1f MB/s).",
+                    objects, bytes, seconds, bytes / seconds / (1 << 20));
         }
-        writeObject(join(remoteCommitDir, commit.hashValue()), commit);
     }
 
     /**
@@ -97,48 +162,50 @@ public class Remote {
     public static void fetch(String remoteName, String remoteBranchName) {
         validateRemoteExists(remoteName);
         String path = remoteGitletPath(remoteName);
-        checkRemoteGitInit(path);
-        checkRemoteBranch(path, remoteBranchName);
-
-        File remoteBranchFile = join(Branch.remoteDirectory(path), remoteBranchName);
-        Branch remoteBranch = readObject(remoteBranchFile, Branch.class);
-        List<String> remoteCommits = remoteBranch.getCommits();
-
-        String fetchBranchName = remoteName + "/" + remoteBranchName;
-        Branch localNewBranch;
-        if (!Branch.checkBranchExists(fetchBranchName)) {
-            localNewBranch = new Branch(fetchBranchName);
+        String remoteHead;
+        if (Server.isURL(path)) {
+            try (RemoteConnection remote = RemoteConnection.open(path)) {
+                remoteHead = remote.fetch(remoteBranchName);
+            }
         } else {
-            localNewBranch = Branch.readCurrentBranch(fetchBranchName);
+            remoteHead = fetchFromDirectory(path, remoteBranchName);
         }
 
-        List<String> localCommits = Commit.readAllCommits();
-        for (String commit : remoteCommits) {
-            if (!localCommits.contains(commit)) {
-                copyFromCommit(commit, path);
-                localNewBranch.addCommit(commit);
-            }
-        }
+        Branch localNewBranch = new Branch(remoteName + "/" + remoteBranchName);
+        localNewBranch.setRecentCommit(remoteHead);
         localNewBranch.saveBranch();
     }
 
     /**
-     * Copy one commit from remote machine to local gitlet directory.
-     * @param commitID the hash ID of the commit to be copied.
-     * @param path the path to the remote gitlet.
+     * Copy the commits of a branch of the repository at PATH that the local repository lacks.
+     * @return the commit the branch points at.
      */
-    private static void copyFromCommit(String commitID, String path) {
-        Commit remoteCommit = Commit.readRemoteCommit(path, commitID);
-        Map<String, String> remoteFileMap = remoteCommit.commitMapping();
-        for (String file : remoteFileMap.keySet()) {
-            String blobID = remoteFileMap.get(file);
-            if (!Blob.checkBlobExists(blobID)) {
-                File remoteBlob = Blob.findRemoteBlob(path, blobID);
-                Blob copied = new Blob(remoteBlob);
-                copied.saveBlob();
-            }
+    private static String fetchFromDirectory(String path, String remoteBranchName) {
+        checkRemoteGitInit(path);
+        checkRemoteBranch(path, remoteBranchName);
+
+        Branch remoteBranch = Branch.remoteCurrentBranch(path, remoteBranchName);
+        String remoteHead = remoteBranch.getRecentCommit();
+
+        long start = System.nanoTime();
+        ObjectSummary.Missing missing = ObjectSummary.local()
+                .missingFrom(remoteHead, id -> Commit.readRemoteCommit(path, id));
+        LocalTransfer transfer = new LocalTransfer(GITLET_DIR);
+        transfer.copyBlobs(missing.blobs, id -> Blob.remoteBlobFile(path, id));
+        long bytes = transfer.bytes();
+        for (String blobID : transfer.uncopied()) {
+            byte[] content = Blob.readRemoteBlob(path, blobID);
+            File blobFile = shardFile(Blob.OBJECT_DIR, blobID);
+            blobFile.getParentFile().mkdirs();
+            writeAtomically(blobFile, BlobFormat.encode(content), GITLET_DIR);
+            bytes += content.length;
         }
-        remoteCommit.saveCommit();
+        for (Commit commit : missing.commits) {
+            commit.saveCommit();
+            bytes += commit.encode().length;
+        }
+        reportTransfer(missing.blobs.size() + missing.commits.size(), bytes, start);
+        return remoteHead;
     }
 
     /**
@@ -180,10 +247,10 @@ public class Remote {
     }
 
     /**
-     * A valid path must have a /.gitlet directory.
+     * A valid path must have a /.gitlet directory, unless it is a gitlet:// URL.
      */
     private static void checkDirectory(String path) {
-        if (!path.endsWith("/.gitlet")) {
+        if (Server.isURL(path) ? Server.parseURL(path) == null : !path.endsWith("/.gitlet")) {
             exitWithError("Invalid Gitlet directory.");
         }
     }
@@ -197,12 +264,16 @@ public class Remote {
     }
 
     /**
-     * Check if the given path is a gitlet directory.
+     * Check if the given path is a gitlet directory whose objects are named by the same
+     * hash algorithm as the local ones, since IDs cannot be translated between them.
      */
     private static void checkRemoteGitInit(String path) {
         if (!join(path).exists()) {
             exitWithError("Remote directory not found.");
         }
+        if (!RepositoryFormat.hashAlgorithm(new File(path)).equals(ObjectHash.ALGORITHM)) {
+            exitWithError("Remote repository uses a different hash algorithm.");
+        }
     }
 
     private static void checkRemoteBranch(String path, String branchName) {
@@ -0,0 +1,222 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.URI;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/**
+ * A connection to a repository served by `gitlet serve`, through which fetch and push talk
+ * to a remote added with a gitlet:// URL. See {@link Server} for the protocol.
+ */
+public class RemoteConnection implements Closeable {
+    /** The connection to the server. */
+    private final Socket socket;
+    /** Replies from the server. */
+    private final DataInputStream in;
+    /** Requests to the server. */
+    private final DataOutputStream out;
+
+    private RemoteConnection(Socket socket) throws IOException {
+        this.socket = socket;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    /**
+     * @return a connection to the repository at the given URL.
+     */
+    public static RemoteConnection open(String location) {
+        URI url = Server.parseURL(location);
+        if (url == null) {
+            exitWithError("Remote directory not found.");
+        }
+        int port = (url.getPort() < 0) ? Server.DEFAULT_PORT : url.getPort();
+        RemoteConnection remote = null;
+        try {
+            remote = new RemoteConnection(new Socket(url.getHost(), port));
+            remote.out.writeInt(Server.MAGIC);
+            remote.out.writeUTF(url.getPath() == null ? "" : url.getPath());
+            remote.out.flush();
+            remote.checkReply();
+            return remote;
+        } catch (IOException | GitletException excp) {
+            if (remote != null) {
+                remote.close();
+            }
+            if (excp instanceof GitletException) {
+                throw (GitletException) excp;
+            }
+            exitWithError("Remote directory not found.");
+            return null;
+        }
+    }
+
+    /**
+     * @return the commit the given branch of the remote points at, or null if it has no
+     * branch with that name.
+     */
+    public String ref(String branch) {
+        try {
+            out.writeByte(Server.REF);
+            out.writeUTF(branch);
+            out.flush();
+            checkReply();
+            String head = in.readUTF();
+            return head.isEmpty() ? null : head;
+        } catch (IOException excp) {
+            throw lostConnection();
+        }
+    }
+
+    /**
+     * @return the summary of the objects of the remote, whose doubtful IDs are checked
+     * by asking the remote.
+     */
+    public ObjectSummary summary() {
+        try {
+            out.writeByte(Server.SUMMARY);
+            out.flush();
+            checkReply();
+            return ObjectSummary.read(in, this::lacking);
+        } catch (IOException excp) {
+            throw lostConnection();
+        }
+    }
+
+    /**
+     * @return the IDS that the remote does not have.
+     */
+    private Set<String> lacking(List<String> ids) {
+        try {
+            out.writeByte(Server.LACKING);
+            Server.writeIDs(out, ids);
+            out.flush();
+            checkReply();
+            return new HashSet<>(Server.readIDs(in));
+        } catch (IOException excp) {
+            throw lostConnection();
+        }
+    }
+
+    /**
+     * Save the objects of the given branch of the remote that the local repository lacks.
+     * @return the commit the branch points at.
+     */
+    public String fetch(String branch) {
+        long start = System.nanoTime();
+        try {
+            out.writeByte(Server.UPLOAD);
+            out.writeUTF(branch);
+            ObjectSummary.local().write(out);
+            out.flush();
+            checkReply();
+            String head = in.readUTF();
+            List<String> doubtful;
+            while (!(doubtful = Server.readIDs(in)).isEmpty()) {
+                Set<String> lacking = new HashSet<>();
+                for (String id : doubtful) {
+                    if (!Commit.checkCommitExists(id) && !Blob.checkBlobExists(id)) {
+                        lacking.add(id);
+                    }
+                }
+                Server.writeIDs(out, lacking);
+                out.flush();
+            }
+            int objects = 0;
+            long bytes = 0;
+            byte kind;
+            while ((kind = in.readByte()) != Server.END) {
+                String id = in.readUTF();
+                byte[] content = new byte[in.readInt()];
+                in.readFully(content);
+                if (kind == Pack.BLOB) {
+                    Blob blob = new Blob(content);
+                    if (!blob.blobHashValue().equals(id)) {
+                        exitWithError("Received a corrupt object.");
+                    }
+                    blob.saveBlob();
+                } else {
+                    Commit commit = Commit.decode(content);
+                    if (!commit.hashValue().equals(id)) {
+                        exitWithError("Received a corrupt object.");
+                    }
+                    commit.saveCommit();
+                }
+                objects += 1;
+                bytes += content.length;
+            }
+            Remote.reportTransfer(objects, bytes, start);
+            return head;
+        } catch (IOException excp) {
+            throw lostConnection();
+        }
+    }
+
+    /**
+     * Send the MISSING objects, then move the given branch of the remote from the EXPECTED
+     * commit to the new HEAD. Fails if another push moved the branch in between.
+     * @param expected the commit the branch pointed at when it was read, or null if it did
+     * not exist.
+     */
+    public void push(String branch, String expected, String head, ObjectSummary.Missing missing) {
+        long start = System.nanoTime();
+        try {
+            out.writeByte(Server.RECEIVE);
+            out.writeUTF(branch);
+            out.writeUTF(expected == null ? "" : expected);
+            out.writeUTF(head);
+            long bytes = 0;
+            for (String blobID : missing.blobs) {
+                byte[] content = Blob.readBlob(blobID);
+                Server.writeObject(out, Pack.BLOB, blobID, content);
+                bytes += content.length;
+            }
+            for (Commit commit : missing.commits) {
+                byte[] encoded = commit.encode();
+                Server.writeObject(out, Pack.COMMIT, commit.hashValue(), encoded);
+                bytes += encoded.length;
+            }
+            out.writeByte(Server.END);
+            out.flush();
+            checkReply();
+            Remote.reportTransfer(missing.blobs.size() + missing.commits.size(), bytes, start);
+        } catch (IOException excp) {
+            throw lostConnection();
+        }
+    }
+
+    /**
+     * Read the status of a reply, failing with the message of the remote if it is an error.
+     */
+    private void checkReply() throws IOException {
+        if (in.readByte() != Server.OK) {
+            exitWithError(in.readUTF());
+        }
+    }
+
+    /**
+     * @return the error reported when the remote goes away in the middle of a request.
+     */
+    private static GitletException lostConnection() {
+        return new GitletException("Lost connection to the remote.");
+    }
+
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException excp) {
+            // nothing more to say to the remote
+        }
+    }
+}
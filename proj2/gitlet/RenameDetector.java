@@ -0,0 +1,258 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the files that were renamed between two snapshots, pairing each file that is only in
+ * the first with the most similar file that is only in the second. The similarity of two files
+ * is the Jaccard similarity of their sets of lines: the number of distinct lines they share
+ * over the number of distinct lines in either.
+ *
+ * Files with identical contents are paired first through their blob IDs. The rest would need
+ * every deleted file compared with every added one, so candidate pairs are found with MinHash
+ * instead: each file is summarized by the smallest hash of its lines under each of SIGNATURE
+ * hash functions, two files agree on each of those minimums with probability equal to their
+ * similarity, and files agreeing on every minimum of at least one band of ROWS minimums land
+ * in the same bucket. Only files sharing a bucket are compared exactly, so the work is nearly
+ * linear in the total size of the files.
+ */
+public class RenameDetector {
+    /** Number of hash functions in a signature. */
+    private static final int SIGNATURE = 64;
+    /** Number of minimums in each band of a signature. */
+    private static final int ROWS = 2;
+    /** Starting value of the FNV-1a hash of a line. */
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    /** Multiplier of the FNV-1a hash of a line. */
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /** The blob IDs of the files only in the first snapshot, by name. */
+    private final Map<String, String> deleted = new HashMap<>();
+    /** The blob IDs of the files only in the second snapshot, by name. */
+    private final Map<String, String> added = new HashMap<>();
+
+    private RenameDetector(Map<String, String> before, Map<String, String> after) {
+        for (Map.Entry<String, String> entry : before.entrySet()) {
+            if (!after.containsKey(entry.getKey())) {
+                deleted.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (Map.Entry<String, String> entry : after.entrySet()) {
+            if (!before.containsKey(entry.getKey())) {
+                added.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return the files renamed from the snapshot BEFORE to the snapshot AFTER, each old name
+     * mapped to its new name, counting only pairs at least THRESHOLD percent similar.
+     * Both snapshots map file names to blob IDs. A THRESHOLD of 0 finds no renames.
+     */
+    public static Map<String, String> detect(Map<String, String> before,
+                                             Map<String, String> after, int threshold) {
+        Map<String, String> renames = new HashMap<>();
+        if (threshold <= 0) {
+            return renames;
+        }
+        RenameDetector detector = new RenameDetector(before, after);
+        detector.pairExact(renames);
+        if (threshold < 100) {
+            detector.pairSimilar(renames, threshold);
+        }
+        return renames;
+    }
+
+    /**
+     * Pair the deleted and added files with the same contents, removing them from both sets.
+     */
+    private void pairExact(Map<String, String> renames) {
+        Map<String, List<String>> addedByBlob = new HashMap<>();
+        for (String name : sorted(added.keySet())) {
+            addedByBlob.computeIfAbsent(added.get(name), blob -> new ArrayList<>()).add(name);
+        }
+        for (String name : sorted(deleted.keySet())) {
+            List<String> same = addedByBlob.get(deleted.get(name));
+            if (same != null && !same.isEmpty()) {
+                String newName = same.remove(0);
+                renames.put(name, newName);
+                added.remove(newName);
+                deleted.remove(name);
+            }
+        }
+    }
+
+    /**
+     * Pair the remaining deleted and added files that are at least THRESHOLD percent similar,
+     * most similar pairs first.
+     */
+    private void pairSimilar(Map<String, String> renames, int threshold) {
+        if (deleted.isEmpty() || added.isEmpty()) {
+            return;
+        }
+        List<String> oldNames = sorted(deleted.keySet());
+        List<String> newNames = sorted(added.keySet());
+        long[][] oldLines = new long[oldNames.size()][];
+        long[][] newLines = new long[newNames.size()][];
+        List<Map<Long, List<Integer>>> buckets = new ArrayList<>();
+        for (int band = 0; band < SIGNATURE / ROWS; band += 1) {
+            buckets.add(new HashMap<>());
+        }
+        for (int i = 0; i < oldNames.size(); i += 1) {
+            oldLines[i] = lineHashes(deleted.get(oldNames.get(i)));
+            long[] signature = signature(oldLines[i]);
+            for (int band = 0; signature != null && band < buckets.size(); band += 1) {
+                buckets.get(band).computeIfAbsent(bandKey(signature, band),
+                                                  key -> new ArrayList<>()).add(i);
+            }
+        }
+
+        // candidate pairs, scored exactly, as (score, old index, new index)
+        List<int[]> pairs = new ArrayList<>();
+        Set<Long> seen = new HashSet<>();
+        for (int j = 0; j < newNames.size(); j += 1) {
+            newLines[j] = lineHashes(added.get(newNames.get(j)));
+            long[] signature = signature(newLines[j]);
+            for (int band = 0; signature != null && band < buckets.size(); band += 1) {
+                List<Integer> bucket = buckets.get(band).get(bandKey(signature, band));
+                if (bucket == null) {
+                    continue;
+                }
+                for (int i : bucket) {
+                    if (seen.add(((long) i << 32) | j)) {
+                        int score = similarity(oldLines[i], newLines[j]);
+                        if (score >= threshold) {
+                            pairs.add(new int[] {score, i, j});
+                        }
+                    }
+                }
+            }
+        }
+
+        pairs.sort((p, q) -> (p[0] != q[0]) ? Integer.compare(q[0], p[0])
+                             : (p[1] != q[1]) ? Integer.compare(p[1], q[1])
+                             : Integer.compare(p[2], q[2]));
+        boolean[] oldTaken = new boolean[oldNames.size()];
+        boolean[] newTaken = new boolean[newNames.size()];
+        for (int[] pair : pairs) {
+            if (!oldTaken[pair[1]] && !newTaken[pair[2]]) {
+                oldTaken[pair[1]] = true;
+                newTaken[pair[2]] = true;
+                renames.put(oldNames.get(pair[1]), newNames.get(pair[2]));
+            }
+        }
+    }
+
+    /**
+     * @return the sorted distinct hashes of the lines of the given blob.
+     */
+    private static long[] lineHashes(String blobID) {
+        byte[] content = Blob.readBlob(blobID);
+        long[] hashes = new long[16];
+        int count = 0;
+        long hash = FNV_OFFSET;
+        for (int k = 0; k <= content.length; k += 1) {
+            if (k == content.length || content[k] == '\n') {
+                if (k == content.length && (k == 0 || content[k - 1] == '\n')) {
+                    break;  // no last line without a newline
+                }
+                if (count == hashes.length) {
+                    hashes = Arrays.copyOf(hashes, count * 2);
+                }
+                hashes[count] = mix(hash);
+                count += 1;
+                hash = FNV_OFFSET;
+            } else {
+                hash = (hash ^ (content[k] & 0xff)) * FNV_PRIME;
+            }
+        }
+        long[] distinct = Arrays.copyOf(hashes, count);
+        Arrays.sort(distinct);
+        int size = 0;
+        for (int k = 0; k < distinct.length; k += 1) {
+            if (k == 0 || distinct[k] != distinct[k - 1]) {
+                distinct[size] = distinct[k];
+                size += 1;
+            }
+        }
+        return Arrays.copyOf(distinct, size);
+    }
+
+    /**
+     * @return the MinHash signature of the file with the given line hashes, or null if it has
+     * no lines.
+     */
+    private static long[] signature(long[] lines) {
+        if (lines.length == 0) {
+            return null;
+        }
+        long[] minimums = new long[SIGNATURE];
+        Arrays.fill(minimums, Long.MAX_VALUE);
+        for (long line : lines) {
+            for (int k = 0; k < SIGNATURE; k += 1) {
+                long hash = mix(line + k * 0x9e3779b97f4a7c15L);
+                if (hash < minimums[k]) {
+                    minimums[k] = hash;
+                }
+            }
+        }
+        return minimums;
+    }
+
+    /**
+     * @return the bucket of the given band of a SIGNATURE.
+     */
+    private static long bandKey(long[] signature, int band) {
+        long key = band;
+        for (int k = band * ROWS; k < (band + 1) * ROWS; k += 1) {
+            key = mix(key ^ signature[k]);
+        }
+        return key;
+    }
+
+    /**
+     * @return the similarity in percent of two files with the given sorted line hashes.
+     */
+    private static int similarity(long[] a, long[] b) {
+        int common = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] == b[j]) {
+                common += 1;
+                i += 1;
+                j += 1;
+            } else if (a[i] < b[j]) {
+                i += 1;
+            } else {
+                j += 1;
+            }
+        }
+        return (int) (100L * common / (a.length + b.length - common));
+    }
+
+    /**
+     * @return a well-mixed 64-bit hash of X (the finalizer of SplitMix64).
+     */
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+        x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+        return x ^ (x >>> 31);
+    }
+
+    /**
+     * @return the NAMES in order.
+     */
+    private static List<String> sorted(Set<String> names) {
+        List<String> list = new ArrayList<>(names);
+        Collections.sort(list);
+        return list;
+    }
+}
@@ -1,18 +1,24 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.util.ArrayDeque;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
+import java.util.Objects;
+import java.util.PrimitiveIterator;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.TreeSet;
 import java.util.stream.Stream;
 
 import static gitlet.Utils.*;
@@ -39,31 +45,57 @@ public class Repository {
       Internal structure of Gitlet
 
       .gitlet
-          |--objects  (for file contents)
-          |--logs     (for commit records)
-          |--branches (for the structure tree)
+          |--objects  (for file contents, in subdirectories named by the first two ID digits)
+          |--logs     (for commit records, sharded like objects)
+          |--packs    (for packed objects and commits)
+          |--commit-graph    (for the binary commit history)
+          |--commit-messages (for commit messages of the commit graph)
+          |--commit-graph-lookup (for finding commits in the commit graph by ID)
+          |--commit-index    (for resolving abbreviated commit IDs)
+          |--message-index   (for finding commits by message)
+          |--time-index      (commits in global-log order)
+          |--incoming-commits (commits pushed in by other repositories, not indexed yet)
+          |--branches (for the commit each branch points at)
+          |--reflogs  (for the history of each branch pointer)
           |--HEAD     (for the current Head pointer)
           |--stage    (for staging area)
+          |--index    (for cached stat data and blob IDs of working files)
           |--remote   (for remote repository)
+          |--config   (for repository settings)
+          |--format   (for the repository layout version and hash algorithm)
+          |--daemon   (for the port of a running daemon, while it runs)
+          |--journals (for the changes of each command, while they are applied)
+          |--locks    (for the lock files of HEAD, the stage, each branch, and each index)
+          |--gc-state (for the progress of a garbage collection run in time slices)
      */
 
     /**
      * Initialize a new Gitlet version-control system in the working directory.
      * Automatically create a master branch with an initial commit that contains no files.
      * If Gitlet already exists in the directory, exit without overwriting the current system.
+     * @param hashAlgorithm the algorithm naming the objects, one of
+     *                      {@link RepositoryFormat#HASH_ALGORITHMS}.
      */
-    public static void init() {
+    public static void init(String hashAlgorithm) {
         // handle exception case
         if (GITLET_DIR.exists()) {
             exitWithError("A Gitlet version-control system already exists "
                     + "in the current directory.");
         }
+        if (!RepositoryFormat.HASH_ALGORITHMS.containsKey(hashAlgorithm)) {
+            exitWithError("Unsupported hash algorithm.");
+        }
 
-        // make directories
+        // record the format first, since every object ID depends on its hash algorithm
         GITLET_DIR.mkdir();
+        RepositoryFormat.create(hashAlgorithm);
+
+        // make directories
         Blob.OBJECT_DIR.mkdir();
         Commit.COMMIT_DIR.mkdir();
+        Pack.PACK_DIR.mkdir();
         Branch.BRANCH_DIR.mkdir();
+        Branch.REFLOG_DIR.mkdir();
         Remote.REMOTE_DIR.mkdir();
 
         // make file for empty staging area
@@ -76,7 +108,7 @@ public class Repository {
 
         // create a master branch and HEAD which points to the initial commit
         Branch master = new Branch("master");
-        master.addCommit(firstCommit.hashValue());
+        master.setRecentCommit(firstCommit.hashValue());
         master.saveBranch();
         Head.setHeadPointer(master.branchName());
     }
@@ -104,7 +136,7 @@ public class Repository {
 
         // update the current branch
         String commitHash = currentCommit.hashValue();
-        currentBranch.addCommit(commitHash);
+        currentBranch.setRecentCommit(commitHash);
         currentBranch.saveBranch();
 
         // update the HEAD pointer
@@ -118,30 +150,97 @@ public class Repository {
      * @return a string representation of this branch's commit history.
      */
     public static String logHistory() {
-        String next = Branch.readCurrentBranch(Head.getHeadState()).getRecentCommit();
+        CommitGraph graph = CommitGraph.open();
+        String head = Branch.readCurrentBranch(Head.getHeadState()).getRecentCommit();
         StringBuilder log = new StringBuilder();
-        while (!next.isEmpty()) {
-            Commit commit = Commit.readCommit(next);
-            log.append(commit.toString()).append("\n");
-            next = commit.parentCommit();
+        for (int next = graph.indexOf(head); next != CommitGraph.NONE; next = graph.parent(next)) {
+            log.append(graph.logEntry(next)).append("\n");
         }
         return log.toString();
     }
 
     /**
-     * @return a string representation of all commits that have been made in the order of time.
+     * Handle the `global-log [--max-count n] [--since date] [--until date]` command.
+     * Print all commits that have been made in the order of time, newest first.
+     * Commits made at the same time are ordered by their IDs. Commits are read in that order
+     * from the time index and printed as they are read, so the output stops as soon as
+     * MAX-COUNT commits are printed or a commit older than SINCE is reached.
+     * Dates are given as yyyy-MM-dd or yyyy-MM-ddTHH:mm:ss in the local time zone.
+     * @param args the arguments of the command, starting with `global-log`.
+     */
+    public static void globalLog(String[] args) {
+        long maxCount = Long.MAX_VALUE;
+        long since = Long.MIN_VALUE;
+        long until = Long.MAX_VALUE;
+        if (args.length % 2 == 0) {
+            exitWithError("Incorrect operands.");
+        }
+        for (int i = 1; i < args.length; i += 2) {
+            switch (args[i]) {
+                case "--max-count":
+                    maxCount = parseCount(args[i + 1]);
+                    break;
+                case "--since":
+                    since = parseDate(args[i + 1]);
+                    break;
+                case "--until":
+                    until = parseDate(args[i + 1]);
+                    break;
+                default:
+                    exitWithError("Incorrect operands.");
+            }
+        }
+
+        CommitGraph graph = CommitGraph.open();
+        for (String branch : Branch.getAllBranches()) {
+            graph.indexOf(Branch.readCurrentBranch(branch).getRecentCommit());
+        }
+        PrintStream out = new PrintStream(new BufferedOutputStream(System.out), false);
+        PrimitiveIterator.OfInt commits = TimeIndex.newestFirst(graph);
+        long printed = 0;
+        while (printed < maxCount && commits.hasNext()) {
+            int next = commits.nextInt();
+            long timestamp = graph.timestamp(next);
+            if (timestamp < since) {
+                break;
+            }
+            if (timestamp <= until) {
+                out.println(graph.logEntry(next));
+                printed += 1;
+            }
+        }
+        out.println();
+        out.flush();
+    }
+
+    /**
+     * @return the non-negative count given as TEXT.
+     */
+    private static long parseCount(String text) {
+        try {
+            long count = Long.parseLong(text);
+            if (count >= 0) {
+                return count;
+            }
+        } catch (NumberFormatException excp) {
+            // reported below
+        }
+        exitWithError("Incorrect operands.");
+        return 0;
+    }
+
+    /**
+     * @return the time in milliseconds of the date given as TEXT, in the local time zone.
      */
-    public static String globalLog() {
-        List<Commit> allCommits = Commit.readAllCommits()
-                                        .stream()
-                                        .map(Commit::readCommit)
-                                        .sorted(Comparator.comparing(Commit::timestamp).reversed())
-                                        .collect(Collectors.toList());
-        StringBuilder logs = new StringBuilder();
-        for (Commit next : new LinkedHashSet<>(allCommits)) {
-            logs.append(next.toString()).append("\n");
+    private static long parseDate(String text) {
+        try {
+            LocalDateTime time = text.contains("T") ? LocalDateTime.parse(text)
+                                                    : LocalDate.parse(text).atStartOfDay();
+            return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException excp) {
+            exitWithError("Incorrect operands.");
+            return 0;
         }
-        return logs.toString();
     }
 
     /**
@@ -209,6 +308,66 @@ public class Repository {
         return status.toString();
     }
 
+    /**
+     * The diff command has three possible use cases:
+     *   1. `java gitlet.Main diff` compares the head commit with the working directory;
+     *   2. `java gitlet.Main diff [commit id]` compares that commit with the working directory;
+     *   3. `java gitlet.Main diff [commit id] [commit id]` compares the two commits.
+     * The working directory stands for the files tracked in the compared commit or staged for
+     * addition; other files are ignored. Each changed file is shown in unified format, with
+     * three lines of context around each change.
+     * @param args array of strings containing all command line arguments.
+     * @return the differences, or an empty string if there are none.
+     */
+    public static String diff(String[] args) {
+        if (args.length > 3) {
+            exitWithError("Incorrect operands.");
+        }
+        Commit from = (args.length == 1) ? Branch.readRecentCommit(Head.getHeadState())
+                                         : Commit.readCommit(args[1]);
+        Map<String, String> before = from.commitMapping();
+        Map<String, String> after;
+        if (args.length == 3) {
+            after = Commit.readCommit(args[2]).commitMapping();
+        } else {
+            Set<String> compared = new HashSet<>(before.keySet());
+            compared.addAll(new Stage().stageMap().keySet());
+            List<String> present = new ArrayList<>(allWorkingFiles());
+            present.retainAll(compared);
+            WorkingTreeIndex index = new WorkingTreeIndex();
+            after = index.blobIDs(present);
+            index.write();
+        }
+
+        Set<String> names = new TreeSet<>(before.keySet());
+        names.addAll(after.keySet());
+        StringBuilder diff = new StringBuilder();
+        for (String name : names) {
+            String oldID = before.get(name);
+            String newID = after.get(name);
+            if (oldID != null && oldID.equals(newID)) {
+                continue;
+            }
+            String oldText = (oldID == null) ? "" : Blob.readBlobAsString(oldID);
+            String newText = (newID == null) ? ""
+                             : (args.length == 3) ? Blob.readBlobAsString(newID)
+                             : readContentsAsString(join(CWD, name));
+            diff.append("diff --gitlet a/").append(name).append(" b/").append(name).append("\n");
+            if (!isText(oldText) || !isText(newText)) {
+                diff.append("Binary files ").append(oldID == null ? "/dev/null" : "a/" + name)
+                    .append(" and ").append(newID == null ? "/dev/null" : "b/" + name)
+                    .append(" differ\n");
+                continue;
+            }
+            diff.append("--- ").append(oldID == null ? "/dev/null" : "a/" + name).append("\n");
+            diff.append("+++ ").append(newID == null ? "/dev/null" : "b/" + name).append("\n");
+            List<String> oldLines = Diff.lines(oldText);
+            List<String> newLines = Diff.lines(newText);
+            diff.append(Diff.unified(oldLines, newLines, Diff.diff(oldLines, newLines), 3));
+        }
+        return diff.toString();
+    }
+
     /**
      * The checkout command has three possible use cases:
      *   1. `java gitlet.Main checkout -- [file name]`
@@ -284,12 +443,33 @@ public class Repository {
      * Create or overwrite file based on the version from a previous commit.
      */
     private static void overwriteFromFile(String filename, Commit prevCommit) {
+        WorkingTreeIndex index = new WorkingTreeIndex();
+        overwriteFromFile(filename, prevCommit, index);
+        index.write();
+    }
+
+    /**
+     * Create or overwrite file based on the version from a previous commit,
+     * recording its blob ID in the working tree index.
+     */
+    private static void overwriteFromFile(String filename, Commit prevCommit,
+                                          WorkingTreeIndex index) {
         String blobID = prevCommit.commitMapping().get(filename);
         if (blobID == null) {
             exitWithError("File does not exist in that commit.");
         }
-        byte[] savedVersion = Blob.readBlob(blobID);
-        writeContents(createFile(filename), (Object) savedVersion);
+        Blob.writeBlobTo(blobID, createFile(filename));
+        index.record(filename, blobID);
+    }
+
+    /**
+     * Create or overwrite file with the contents of the given blob,
+     * recording its blob ID in the working tree index.
+     */
+    private static void overwriteFromBlob(String filename, String blobID,
+                                          WorkingTreeIndex index) {
+        Blob.writeBlobTo(blobID, createFile(filename));
+        index.record(filename, blobID);
     }
 
     /**
@@ -297,9 +477,11 @@ public class Repository {
      */
     private static void overwriteAllFiles(Commit prevCommit) {
         Set<String> savedFiles = prevCommit.commitMapping().keySet();
+        WorkingTreeIndex index = new WorkingTreeIndex();
         for (String file : savedFiles) {
-            overwriteFromFile(file, prevCommit);
+            overwriteFromFile(file, prevCommit, index);
         }
+        index.write();
     }
 
     /**
@@ -312,7 +494,7 @@ public class Repository {
         validateNewBranch(branchName);
         Branch diverged = new Branch(branchName);
         Branch current = Branch.readCurrentBranch(Head.getHeadState());
-        diverged.addPrevCommits(current.getCommits());
+        diverged.setRecentCommit(current.getRecentCommit());
         diverged.saveBranch();
     }
 
@@ -343,7 +525,7 @@ public class Repository {
     public static void removeBranch(String branchName) {
         validateBranchExistsV2(branchName);
         validateRmCurrentBranch(branchName);
-        join(Branch.BRANCH_DIR, branchName).delete();
+        Branch.deleteBranch(branchName);
     }
 
     /**
@@ -400,14 +582,18 @@ public class Repository {
      *   - staged for addition, but with different contents than in the working directory; or
      *   - staged for addition, but deleted in the working directory; or
      *   - not staged for removal, but tracked in the current commit and deleted.
+     * Working files are compared through the working tree index, so only files whose
+     * stat data changed since they were last hashed are read, and those are hashed in parallel.
      * @return a list of file names that satisfied these conditions.
      */
     private static List<String> modifiedFiles(Map<String, String> added, Set<String> removed,
                                               Map<String, String> tracked) {
         List<String> modified = new ArrayList<>();
         List<String> workingFiles = allWorkingFiles();
+        WorkingTreeIndex index = new WorkingTreeIndex();
+        Map<String, String> workingVersions = index.blobIDs(workingFiles);
         for (String filename : workingFiles) {
-            String currVersion = new Blob(findFile(filename)).blobHashValue();
+            String currVersion = workingVersions.get(filename);
             if (tracked.containsKey(filename) && !currVersion.equals(tracked.get(filename))) {
                 modified.add(filename + " (modified)");
             } else if (added.containsKey(filename) && !currVersion.equals(added.get(filename))) {
@@ -424,6 +610,8 @@ public class Repository {
                 modified.add(trackFile + " (deleted)");
             }
         }
+        index.retainAll(workingFiles);
+        index.write();
         Collections.sort(modified);
         return modified;
     }
@@ -487,13 +675,25 @@ public class Repository {
     /**
      * Prints out the IDs of all commits that have the given commit message, one per line.
      * If there are multiple such commits, it prints the IDs out on separate lines.
+     * Commits are looked up in the message index rather than read one by one.
      * @return a string of commit IDs.
      */
     public static String findCommitID(String commitMsg) {
-        List<String> commitIDs = Commit.readAllCommits()
-                              .stream()
-                              .filter(id -> Commit.readCommit(id).commitMessage().equals(commitMsg))
-                              .collect(Collectors.toList());
+        return joinFound(MessageIndex.findExact(commitMsg));
+    }
+
+    /**
+     * Handle the `find --contains [text]` command.
+     * @return the IDs of all commits whose message contains the given text, one per line.
+     */
+    public static String findCommitsContaining(String text) {
+        return joinFound(MessageIndex.findContaining(text));
+    }
+
+    /**
+     * @return the found commit IDs, one per line. Exit with an error message if there are none.
+     */
+    private static String joinFound(List<String> commitIDs) {
         if (commitIDs.isEmpty()) {
             exitWithError("Found no commit with that message.");
         }
@@ -514,7 +714,7 @@ public class Repository {
         deleteTrackedFiles(prevCommit);
 
         Branch currBranch = Branch.readCurrentBranch(Head.getHeadState());
-        currBranch.addCommit(commitID);
+        currBranch.setRecentCommit(prevCommit.hashValue());
         currBranch.saveBranch();
     }
 
@@ -547,15 +747,17 @@ public class Repository {
         Branch merging = Branch.readCurrentBranch(branchName);
         Commit currentCommit = Branch.readRecentCommit(current);
         Commit mergingCommit = Branch.readRecentCommit(merging);
-        String splitID = findSplitPoint(currentCommit.hashValue(), mergingCommit.hashValue());
-        checkSplitBeforeMerge(currentCommit, mergingCommit, splitID);
+        List<String> bases = MergeBase.find(currentCommit.hashValue(), mergingCommit.hashValue());
+        checkSplitBeforeMerge(currentCommit, mergingCommit, bases);
 
-        Map<String, String> currentFiles = currentCommit.commitMapping();
-        Map<String, String> mergingFiles = mergingCommit.commitMapping();
-        Map<String, String> splitPoint = Commit.readCommit(splitID).commitMapping();
+        Map<String, String> currentFiles = new HashMap<>(currentCommit.commitMapping());
+        Map<String, String> mergingFiles = new HashMap<>(mergingCommit.commitMapping());
+        Map<String, String> splitPoint = splitFiles(bases);
         Set<String> conflictFiles = new HashSet<>();
 
         Stage stagingArea = new Stage();
+        WorkingTreeIndex index = new WorkingTreeIndex();  // written once, after every file
+        followRenames(splitPoint, currentFiles, mergingFiles, stagingArea, index);
         for (String file : splitPoint.keySet()) {
             String earliest = splitPoint.get(file);
             String mergingVersion = mergingFiles.get(file);
@@ -573,8 +775,8 @@ public class Repository {
                 // if the file is present in the given branch, only needs to consider the case when
                 // it was modified; otherwise, keep the version in the current branch and do nothing
                 if (earliest.equals(workingVersion)) {
-                    overwriteFromFile(file, mergingCommit);
-                    stagingArea.addToStagingArea(file);
+                    overwriteFromBlob(file, mergingVersion, index);
+                    stagingArea.addToStagingArea(file, index);
                 } else if (!mergingVersion.equals(workingVersion)) {
                     conflictFiles.add(file);
                 }
@@ -588,101 +790,191 @@ public class Repository {
             // only considers files that are not present at the split point
             if (!splitPoint.containsKey(file)) {
                 if (workingVersion == null) {
-                    overwriteFromFile(file, mergingCommit);
-                    stagingArea.addToStagingArea(file);
+                    overwriteFromBlob(file, mergingVersion, index);
+                    stagingArea.addToStagingArea(file, index);
                 } else if (!workingVersion.equals(mergingVersion)) {
                     conflictFiles.add(file);
                 }
             }
         }
 
-        if (!conflictFiles.isEmpty()) {
-            resolveMergeConflict(conflictFiles, currentFiles, mergingFiles, stagingArea);
+        if (resolveMergeConflict(conflictFiles, splitPoint, currentFiles, mergingFiles,
+                                 stagingArea, index)) {
             message("Encountered a merge conflict.");
         }
+        index.write();
 
         String message = String.format("Merged %s into %s.", branchName, headBranch);
         Commit merged = new Commit(message, currentCommit, mergingCommit);
         merged.saveCommit();
-        current.addCommit(merged.hashValue());
+        current.setRecentCommit(merged.hashValue());
         current.saveBranch();
     }
 
     /**
-     * In the case of merge conflict, replace the contents of the conflicted file with
-     * the difference between two versions.
-     * @param conflicts the set of file names that are in conflict.
+     * Follow the files renamed since the split point on one branch, so that changes made to
+     * such a file on the other branch, under its old name, are merged into it under its new
+     * name rather than conflicting with its deletion. Renames are found by
+     * {@link RenameDetector} with the `merge.renameThreshold` setting.
+     * The file maps are rewritten to use the new names, and a file renamed in the given branch
+     * is moved to its new name in the working directory, keeping its current version.
+     * @param splitFiles the map of file names to blobs at the split point.
      * @param currFiles the map of file names to blobs in the current branch.
      * @param mergingFiles the map of file names to blobs in the given branch.
      * @param stagingArea the active staging area.
-     */
-    private static void resolveMergeConflict(Set<String> conflicts, Map<String, String> currFiles,
-                                             Map<String, String> mergingFiles, Stage stagingArea) {
-        for (String file : conflicts) {
-            String currBlobId = currFiles.get(file);
-            String mergeBlobID = mergingFiles.get(file);
-
-            StringBuilder newContent = new StringBuilder();
-            newContent.append("<<<<<<< HEAD\n");
-            if (currBlobId != null) {
-                newContent.append(Blob.readBlobAsString(currBlobId));
+     * @param index the working tree index, written by the caller.
+     */
+    private static void followRenames(Map<String, String> splitFiles,
+                                      Map<String, String> currFiles,
+                                      Map<String, String> mergingFiles, Stage stagingArea,
+                                      WorkingTreeIndex index) {
+        int threshold = Config.getInt(Config.RENAME_THRESHOLD);
+        Map<String, String> ours = RenameDetector.detect(splitFiles, currFiles, threshold);
+        Map<String, String> theirs = RenameDetector.detect(splitFiles, mergingFiles, threshold);
+        for (Map.Entry<String, String> rename : ours.entrySet()) {
+            String oldName = rename.getKey();
+            String newName = rename.getValue();
+            if (newName.equals(theirs.get(oldName))) {
+                // renamed alike on both branches: merge the two versions from the old one
+                splitFiles.put(newName, splitFiles.remove(oldName));
+            } else if (!theirs.containsKey(oldName) && mergingFiles.containsKey(oldName)
+                       && !mergingFiles.containsKey(newName)) {
+                splitFiles.put(newName, splitFiles.remove(oldName));
+                mergingFiles.put(newName, mergingFiles.remove(oldName));
             }
-            newContent.append("=======\n");
-            if (mergeBlobID != null) {
-                newContent.append(Blob.readBlobAsString(mergeBlobID));
+        }
+        for (Map.Entry<String, String> rename : theirs.entrySet()) {
+            String oldName = rename.getKey();
+            String newName = rename.getValue();
+            if (!ours.containsKey(oldName) && currFiles.containsKey(oldName)
+                    && !currFiles.containsKey(newName)) {
+                splitFiles.put(newName, splitFiles.remove(oldName));
+                currFiles.put(newName, currFiles.remove(oldName));
+                restrictedDelete(oldName);
+                stagingArea.removeFromStagingArea(oldName);
+                overwriteFromBlob(newName, currFiles.get(newName), index);
+                stagingArea.addToStagingArea(newName, index);
             }
-            newContent.append(">>>>>>>\n");
-            writeContents(createFile(file), newContent.toString());
-
-            stagingArea.addToStagingArea(file);
         }
     }
 
     /**
-     * Find the split point of two branches before merging them.
-     * The split point is the latest common ancestor of the current and given branch heads.
-     * @return the commit ID of the split point.
-     */
-    private static String findSplitPoint(String c1, String c2) {
-        Set<String> commitHistory = new HashSet<>();
-        Queue<String> bfsqueue = new ArrayDeque<>();
-
-        // add all commits in c1 to the commitHistory set
-        commitHistory.add(c1);
-        bfsqueue.add(c1);
-        while (!bfsqueue.isEmpty()) {
-            String commitID = bfsqueue.remove();
-            Commit commit = Commit.readCommit(commitID);
-            String parentID = commit.parentCommit();
-            if (!parentID.isEmpty()) {
-                bfsqueue.add(parentID);
-                commitHistory.add(parentID);
-            }
-            String secondParent = commit.secondParentCommit();
-            if (!secondParent.isEmpty()) {
-                bfsqueue.add(secondParent);
-                commitHistory.add(secondParent);
-            }
-        }
-
-        // add commits in c2, search for the first common ancestor
-        bfsqueue.add(c2);
-        while (!bfsqueue.isEmpty()) {
-            String commitID = bfsqueue.remove();
-            Commit commit = Commit.readCommit(commitID);
-            if (commitHistory.contains(commitID)) {
-                return commitID;
+     * Merge the files changed on both branches line by line, and stage the results.
+     * A file whose two versions change different lines of its version at the split point
+     * gets both changes; the lines changed differently on each side become conflict hunks.
+     * A file deleted on one side, or that is not text, is replaced by a single hunk holding
+     * its two versions.
+     * @param conflicts the set of file names changed differently on both branches.
+     * @param splitFiles the map of file names to blobs at the split point.
+     * @param currFiles the map of file names to blobs in the current branch.
+     * @param mergingFiles the map of file names to blobs in the given branch.
+     * @param stagingArea the active staging area.
+     * @param index the working tree index, written by the caller.
+     * @return true if any file was left with a conflict.
+     */
+    private static boolean resolveMergeConflict(Set<String> conflicts,
+                                                Map<String, String> splitFiles,
+                                                Map<String, String> currFiles,
+                                                Map<String, String> mergingFiles,
+                                                Stage stagingArea, WorkingTreeIndex index) {
+        boolean conflicted = false;
+        for (String file : conflicts) {
+            String splitBlobID = splitFiles.get(file);
+            String currBlobId = currFiles.get(file);
+            String mergeBlobID = mergingFiles.get(file);
+            String current = (currBlobId == null) ? null : Blob.readBlobAsString(currBlobId);
+            String merging = (mergeBlobID == null) ? null : Blob.readBlobAsString(mergeBlobID);
+            String split = (splitBlobID == null) ? "" : Blob.readBlobAsString(splitBlobID);
+
+            String newContent;
+            if (current != null && merging != null && isText(split) && isText(current)
+                    && isText(merging)) {
+                LineMerge merged = LineMerge.merge(split, current, merging);
+                newContent = merged.text();
+                conflicted |= merged.conflicts() > 0;
+            } else {
+                newContent = "<<<<<<< HEAD\n" + (current == null ? "" : current)
+                             + "=======\n" + (merging == null ? "" : merging) + ">>>>>>>\n";
+                conflicted = true;
             }
-            String parentID = commit.parentCommit();
-            if (!parentID.isEmpty()) {
-                bfsqueue.add(parentID);
+            writeContents(createFile(file), newContent);
+
+            stagingArea.addToStagingArea(file, index);
+        }
+        return conflicted;
+    }
+
+    /**
+     * @return false if CONTENT holds a NUL character, as binary files do and text never does.
+     */
+    private static boolean isText(String content) {
+        return content.indexOf('\0') < 0;
+    }
+
+    /**
+     * Find the files at the split point of two branches, given their merge bases, the latest
+     * common ancestors of the two branch heads found by {@link MergeBase}.
+     * After criss-cross merges there are several equally good bases. Their files are then
+     * merged into a virtual split point, using their own merge bases in turn; a file changed
+     * differently by the bases keeps the lines of both, with conflict markers.
+     * @return a new map of file names to blobs.
+     */
+    private static Map<String, String> splitFiles(List<String> bases) {
+        if (bases.isEmpty()) {
+            return new HashMap<>();
+        }
+        Map<String, String> files = new HashMap<>(Commit.readCommit(bases.get(0)).commitMapping());
+        for (int k = 1; k < bases.size(); k += 1) {
+            Map<String, String> other = Commit.readCommit(bases.get(k)).commitMapping();
+            Map<String, String> below = splitFiles(MergeBase.find(bases.get(0), bases.get(k)));
+            files = mergeVirtually(below, files, other);
+        }
+        return files;
+    }
+
+    /**
+     * Merge two snapshots of files into one without touching the working directory,
+     * saving the blobs of files merged line by line.
+     * @param base the map of file names to blobs both snapshots come from.
+     * @param ours the map of file names to blobs of one snapshot.
+     * @param theirs the map of file names to blobs of the other snapshot.
+     * @return the map of file names to blobs of the merged snapshot.
+     */
+    private static Map<String, String> mergeVirtually(Map<String, String> base,
+                                                      Map<String, String> ours,
+                                                      Map<String, String> theirs) {
+        Set<String> names = new HashSet<>(ours.keySet());
+        names.addAll(theirs.keySet());
+        Map<String, String> merged = new HashMap<>();
+        for (String name : names) {
+            String baseVersion = base.get(name);
+            String ourVersion = ours.get(name);
+            String theirVersion = theirs.get(name);
+            String version;
+            if (Objects.equals(ourVersion, theirVersion)
+                    || Objects.equals(theirVersion, baseVersion)) {
+                version = ourVersion;
+            } else if (Objects.equals(ourVersion, baseVersion) || ourVersion == null) {
+                version = theirVersion;
+            } else if (theirVersion == null) {
+                version = ourVersion;
+            } else {
+                String ourText = Blob.readBlobAsString(ourVersion);
+                String theirText = Blob.readBlobAsString(theirVersion);
+                String baseText = (baseVersion == null) ? "" : Blob.readBlobAsString(baseVersion);
+                version = ourVersion;
+                if (isText(baseText) && isText(ourText) && isText(theirText)) {
+                    Blob blob = new Blob(LineMerge.merge(baseText, ourText, theirText).text()
+                                         .getBytes(StandardCharsets.UTF_8));
+                    blob.saveBlob();
+                    version = blob.blobHashValue();
+                }
             }
-            String secondParent = commit.secondParentCommit();
-            if (!secondParent.isEmpty()) {
-                bfsqueue.add(secondParent);
+            if (version != null) {
+                merged.put(name, version);
             }
         }
-        return "";
+        return merged;
     }
 
     /**
@@ -713,15 +1005,15 @@ public class Repository {
      * If the split point is the current branch, then the effect is to check out the given branch.
      * @param currentCommit the most recent commit in the current branch.
      * @param mergingCommit the most recent commit in the given branch.
-     * @param splitID the hash ID of the split point of the two branches.
+     * @param bases the hash IDs of the merge bases of the two branches.
      */
     private static void checkSplitBeforeMerge(Commit currentCommit, Commit mergingCommit,
-                                              String splitID) {
-        if (splitID.equals(mergingCommit.hashValue())) {
+                                              List<String> bases) {
+        if (bases.contains(mergingCommit.hashValue())) {
             exitWithError("Given branch is an ancestor of the current branch.");
         }
 
-        if (splitID.equals(currentCommit.hashValue())) {
+        if (bases.contains(currentCommit.hashValue())) {
             overwriteAllFiles(mergingCommit);
             deleteTrackedFiles(mergingCommit);
             exitWithError("Current branch fast-forwarded.");
@@ -0,0 +1,158 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static gitlet.Repository.GITLET_DIR;
+import static gitlet.Utils.*;
+
+/**
+ * Records how a repository lays out its files, so that repositories created by earlier
+ * versions can be upgraded in place the first time they are used.
+ * The format file holds `key = value` lines. Repositories without one use the original
+ * flat layout, with one file per object directly under `objects` and `logs`.
+ * The current layout shards both directories by the first two digits of each ID,
+ * so no single directory grows past a few thousand entries.
+ * The format file also records the hash algorithm of object IDs; see {@link ObjectHash}.
+ */
+public class RepositoryFormat {
+    /** The format file under the .gitlet directory. */
+    public static final File FORMAT_FILE = join(GITLET_DIR, "format");
+
+    /** The key naming the layout of the object and commit directories. */
+    public static final String LAYOUT = "layout";
+    /** The layout with objects sharded by the first two digits of their ID. */
+    public static final String SHARDED = "sharded";
+    /** The key naming the hash algorithm of object IDs. */
+    public static final String HASH = "hash";
+    /** The hash algorithm of repositories that do not record one. */
+    public static final String DEFAULT_HASH = "sha1";
+    /** The supported hash algorithms, by the names recorded in the format file. */
+    public static final Map<String, String> HASH_ALGORITHMS =
+            Map.of("sha1", "SHA-1", "sha256", "SHA-256");
+
+    /**
+     * Record the current format for a newly created repository.
+     * @param hashAlgorithm one of HASH_ALGORITHMS, naming the objects of the repository.
+     */
+    public static void create(String hashAlgorithm) {
+        Map<String, String> format = new TreeMap<>();
+        format.put(LAYOUT, SHARDED);
+        format.put(HASH, hashAlgorithm);
+        save(format);
+    }
+
+    /**
+     * @return the hash algorithm of the repository in the given .gitlet directory.
+     */
+    public static String hashAlgorithm(File gitletDir) {
+        return load(gitletDir).getOrDefault(HASH, DEFAULT_HASH);
+    }
+
+    /**
+     * Bring the local repository up to the current format if it was created by
+     * an earlier version. Objects are moved one at a time, and the format is only
+     * recorded once all of them are in place, so an interrupted upgrade simply
+     * resumes on the next command.
+     */
+    public static void upgrade() {
+        Map<String, String> format = load(GITLET_DIR);
+        if (SHARDED.equals(format.get(LAYOUT))) {
+            return;
+        }
+        shard(Blob.OBJECT_DIR);
+        shard(Commit.COMMIT_DIR);
+        format.put(LAYOUT, SHARDED);
+        save(format);
+    }
+
+    /**
+     * Handle the `migrate` command.
+     * Rewrite every loose commit and the staging area still saved with Java serialization
+     * in the binary encoding of {@link Codec}, and every branch saved as a list of commits
+     * as a ref file. Each file is replaced by an atomic
+     * rename, so an interrupted migration leaves every file readable in one format or the other.
+     * Packed commits are left as they are, since packs are never modified; they stay readable.
+     */
+    public static void migrate() {
+        for (String commitID : shardedIDsIn(Commit.COMMIT_DIR)) {
+            File commitFile = shardFile(Commit.COMMIT_DIR, commitID);
+            byte[] data = readContents(commitFile);
+            if (Codec.isLegacy(data)) {
+                replace(commitFile, Commit.decode(data).encode());
+            }
+        }
+        if (Stage.STAGE_FILE.isFile() && Codec.isLegacy(readContents(Stage.STAGE_FILE))) {
+            replace(Stage.STAGE_FILE, Stage.readFromStage().encode());
+        }
+        for (String branchName : Branch.getAllBranches()) {
+            File branchFile = join(Branch.BRANCH_DIR, branchName);
+            byte[] data = readContents(branchFile);
+            if (data.length != ObjectHash.ID_LENGTH) {
+                String head = Branch.decode(branchName, data).encode();
+                replace(branchFile, head.getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+    }
+
+    /**
+     * Replace the contents of FILE through a temporary file under the .gitlet directory.
+     */
+    private static void replace(File file, byte[] contents) {
+        writeAtomically(file, contents, GITLET_DIR);
+    }
+
+    /**
+     * @return the loose file of an object in the given directory of a repository that
+     * may not be upgraded yet, such as a remote: the sharded file if it exists,
+     * otherwise the flat one.
+     */
+    public static File looseFile(File dir, String id) {
+        File sharded = shardFile(dir, id);
+        return sharded.exists() ? sharded : join(dir, id);
+    }
+
+    /**
+     * Move every flat object file in DIR into its shard.
+     */
+    private static void shard(File dir) {
+        List<String> flat = plainFilenamesIn(dir);
+        if (flat == null) {
+            return;
+        }
+        try {
+            for (String id : flat) {
+                if (!id.matches("[0-9a-f]{3,}")) {
+                    continue;
+                }
+                File target = shardFile(dir, id);
+                target.getParentFile().mkdir();
+                Files.move(join(dir, id).toPath(), target.toPath(),
+                           StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * @return the settings in the format file of the repository in the given .gitlet directory,
+     * or none for a repository created before it.
+     */
+    private static Map<String, String> load(File gitletDir) {
+        return readSettings(join(gitletDir, FORMAT_FILE.getName()));
+    }
+
+    /**
+     * Write the format file.
+     */
+    private static void save(Map<String, String> format) {
+        writeSettings(FORMAT_FILE, format);
+    }
+}
@@ -0,0 +1,361 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static gitlet.Utils.*;
+
+/**
+ * Serves the repository in the current directory, and those in its subdirectories, over TCP,
+ * so that other repositories can fetch from and push to it through a remote added with a URL
+ * of the form gitlet://host:port/path, where path names a repository under the directory of
+ * the server, or the server's own repository if it is empty.
+ * `gitlet serve [port]` listens on the loopback interface until it is killed, and prints the
+ * port it listens on.
+ *
+ * A client opens a connection with a magic number and the path of a repository, and the
+ * server answers OK or ERROR with a message. The client then sends requests, each a request
+ * byte and its arguments, and each answered by OK and the results, or ERROR and a message:
+ *   - REF branch: the commit of the branch, or an empty string if there is none.
+ *   - SUMMARY: the {@link ObjectSummary} of the repository.
+ *   - LACKING ids: those of the IDS the repository does not have.
+ *   - UPLOAD branch summary: the commit of the branch, then the objects reachable from it
+ *     that the client lacks according to its summary. While the server walks its history it
+ *     may send batches of IDs that the client must answer with those it lacks, as for
+ *     LACKING, ending with an empty batch.
+ *   - RECEIVE branch expected new objects: save the objects, then move the branch from
+ *     the EXPECTED commit to the NEW one, failing if it is no longer at EXPECTED.
+ * Objects are sent as a stream of entries, each a kind byte, the ID, and the length and
+ * bytes of the content of a blob or the encoded form of a commit, ended by a zero byte.
+ * Blobs come first and commits after them, parents first, so that a receiver saving them
+ * in order never saves a commit before what it refers to.
+ * A request that fails after its OK was sent, such as an UPLOAD missing an object, closes
+ * the connection instead, which the client reports as a lost connection.
+ *
+ * Each connection has its own thread, but requests run one at a time, as the rest of gitlet
+ * is single-threaded.
+ */
+public class Server {
+    /** The scheme of remote URLs. */
+    public static final String SCHEME = "gitlet";
+    /** The port used when a URL does not give one. */
+    public static final int DEFAULT_PORT = 9418;
+
+    /** Magic number opening a connection. */
+    static final int MAGIC = 0x47544c31;  // "GTL1"
+    /** Reply of a request that succeeded. */
+    static final byte OK = 0;
+    /** Reply of a request that failed, followed by the error message. */
+    static final byte ERROR = 1;
+    /** Request for the commit of a branch. */
+    static final byte REF = 1;
+    /** Request for the summary of the repository. */
+    static final byte SUMMARY = 2;
+    /** Request for the IDs the repository lacks. */
+    static final byte LACKING = 3;
+    /** Request for the objects of a branch. */
+    static final byte UPLOAD = 4;
+    /** Request to save objects and move a branch. */
+    static final byte RECEIVE = 5;
+    /** Entry kind ending a stream of objects. */
+    static final byte END = 0;
+
+    /** Held while a request runs. */
+    private static final Object REQUEST_LOCK = new Object();
+
+    /**
+     * Handle the `serve [port]` command.
+     */
+    public static void serve(String[] args) {
+        int port = DEFAULT_PORT;
+        if (args.length == 2) {
+            try {
+                port = Integer.parseInt(args[1]);
+            } catch (NumberFormatException excp) {
+                exitWithError("Invalid port.");
+            }
+        } else {
+            Main.validateArgc(args, 1);
+        }
+        Path root = new File(System.getProperty("user.dir")).toPath().toAbsolutePath();
+        ExecutorService threads = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task);
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            message("Serving on port %d.", server.getLocalPort());
+            System.out.flush();
+            while (true) {
+                Socket client = server.accept();
+                threads.execute(() -> handle(client, root));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    /**
+     * @return true if the location of a remote is a URL rather than a directory.
+     */
+    public static boolean isURL(String location) {
+        return location.startsWith(SCHEME + "://");
+    }
+
+    /**
+     * @return the URL of a remote, or null if it is not a valid gitlet URL.
+     */
+    static URI parseURL(String location) {
+        try {
+            URI url = new URI(location);
+            if (!SCHEME.equals(url.getScheme()) || url.getHost() == null) {
+                return null;
+            }
+            return url;
+        } catch (URISyntaxException excp) {
+            return null;
+        }
+    }
+
+    /**
+     * Serve one client until it closes the connection.
+     */
+    private static void handle(Socket socket, Path root) {
+        try (socket) {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream()));
+            if (in.readInt() != MAGIC) {
+                return;
+            }
+            String path = resolve(root, in.readUTF());
+            if (path == null) {
+                refuse(out, "Remote directory not found.");
+                return;
+            }
+            if (!RepositoryFormat.hashAlgorithm(new File(path)).equals(ObjectHash.ALGORITHM)) {
+                refuse(out, "Remote repository uses a different hash algorithm.");
+                return;
+            }
+            out.writeByte(OK);
+            out.flush();
+            int request;
+            while ((request = in.read()) >= 0) {
+                synchronized (REQUEST_LOCK) {
+                    try {
+                        Pack.closeAll();
+                        execute(request, path, in, out);
+                    } catch (GitletException excp) {
+                        refuse(out, excp.getMessage());
+                    } finally {
+                        Session.flush();
+                    }
+                }
+                out.flush();
+            }
+        } catch (IOException | RuntimeException excp) {
+            // the client went away or sent garbage; drop it and keep serving the others
+        }
+    }
+
+    /**
+     * Run one request on the repository at PATH and write its reply.
+     */
+    private static void execute(int request, String path, DataInputStream in,
+                                DataOutputStream out) throws IOException {
+        switch (request) {
+            case REF: {
+                String branch = in.readUTF();
+                File ref = Branch.remoteRefFile(path, branch);
+                out.writeByte(OK);
+                out.writeUTF(ref.isFile() ? Branch.remoteCurrentBranch(path, branch)
+                                                  .getRecentCommit() : "");
+                break;
+            }
+            case SUMMARY:
+                out.writeByte(OK);
+                ObjectSummary.remote(path).write(out);
+                break;
+            case LACKING: {
+                List<String> ids = readIDs(in);
+                Set<String> lacking = new HashSet<>();
+                for (String id : ids) {
+                    if (!Commit.checkRemoteCommitExists(path, id)
+                            && !Blob.checkRemoteBlobExists(path, id)) {
+                        lacking.add(id);
+                    }
+                }
+                out.writeByte(OK);
+                writeIDs(out, lacking);
+                break;
+            }
+            case UPLOAD:
+                upload(path, in, out);
+                break;
+            case RECEIVE:
+                receive(path, in, out);
+                break;
+            default:
+                throw new IOException("Unknown request.");
+        }
+    }
+
+    /**
+     * Send the objects of a branch that the client lacks.
+     */
+    private static void upload(String path, DataInputStream in, DataOutputStream out)
+            throws IOException {
+        String branch = in.readUTF();
+        ObjectSummary have = ObjectSummary.read(in, ids -> {
+            try {
+                writeIDs(out, ids);
+                out.flush();
+                return new HashSet<>(readIDs(in));
+            } catch (IOException excp) {
+                throw new UncheckedIOException(excp);
+            }
+        });
+        if (!Branch.remoteRefFile(path, branch).isFile()) {
+            exitWithError("That remote does not have that branch.");
+        }
+        String head = Branch.remoteCurrentBranch(path, branch).getRecentCommit();
+        out.writeByte(OK);
+        out.writeUTF(head);
+        try {
+            ObjectSummary.Missing missing;
+            try {
+                missing = have.missingFrom(head, id -> Commit.readRemoteCommit(path, id));
+            } catch (UncheckedIOException excp) {
+                throw excp.getCause();
+            }
+            writeIDs(out, List.of());
+            for (String blobID : missing.blobs) {
+                writeObject(out, Pack.BLOB, blobID, Blob.readRemoteBlob(path, blobID));
+            }
+            for (Commit commit : missing.commits) {
+                writeObject(out, Pack.COMMIT, commit.hashValue(), commit.encode());
+            }
+            out.writeByte(END);
+        } catch (GitletException excp) {
+            // the reply is under way, so an ERROR would be read as part of it: drop the client
+            throw new IOException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Save the objects pushed by the client, then move its branch if nobody moved it since
+     * the client looked.
+     */
+    private static void receive(String path, DataInputStream in, DataOutputStream out)
+            throws IOException {
+        String branch = in.readUTF();
+        String expected = in.readUTF();
+        String head = in.readUTF();
+        byte kind;
+        while ((kind = in.readByte()) != END) {
+            String id = in.readUTF();
+            byte[] content = new byte[in.readInt()];
+            in.readFully(content);
+            if (kind == Pack.BLOB) {
+                if (!new Blob(content).blobHashValue().equals(id)) {
+                    throw new IOException("Corrupt blob " + id);
+                }
+                Remote.saveRemoteBlob(path, id, content);
+            } else {
+                Commit commit = Commit.decode(content);
+                if (!commit.hashValue().equals(id)) {
+                    throw new IOException("Corrupt commit " + id);
+                }
+                Remote.saveRemoteCommit(path, commit);
+            }
+        }
+        File ref = Branch.remoteRefFile(path, branch);
+        Locks.acquire(new File(path), ref);
+        String current = ref.isFile()
+                         ? Branch.remoteCurrentBranch(path, branch).getRecentCommit() : "";
+        if (!current.equals(expected)) {
+            exitWithError("Please pull down remote changes before pushing.");
+        }
+        Branch.moveRemoteBranch(path, branch, head);
+        Session.flush();  // the ref of the server's own repository is written at the end
+        out.writeByte(OK);
+    }
+
+    /**
+     * @return the .gitlet directory of the repository at PATH under ROOT, or null if there is
+     * none or PATH leads out of ROOT.
+     */
+    private static String resolve(Path root, String path) {
+        String relative = path.replaceFirst("^/+", "").replaceFirst("/?\\.gitlet/?$", "");
+        Path repository = root.resolve(relative).normalize();
+        if (!repository.startsWith(root)) {
+            return null;
+        }
+        File gitletDir = repository.resolve(".gitlet").toFile();
+        return gitletDir.isDirectory() ? gitletDir.getPath() : null;
+    }
+
+    /**
+     * Reply ERROR with the given message.
+     */
+    private static void refuse(DataOutputStream out, String message) throws IOException {
+        out.writeByte(ERROR);
+        out.writeUTF(message);
+        out.flush();
+    }
+
+    /**
+     * Write one entry of a stream of objects.
+     */
+    static void writeObject(DataOutputStream out, byte kind, String id, byte[] content)
+            throws IOException {
+        out.writeByte(kind);
+        out.writeUTF(id);
+        out.writeInt(content.length);
+        out.write(content);
+    }
+
+    /**
+     * Write a count followed by the IDS.
+     */
+    static void writeIDs(DataOutputStream out, Iterable<String> ids) throws IOException {
+        List<String> list = new ArrayList<>();
+        ids.forEach(list::add);
+        out.writeInt(list.size());
+        for (String id : list) {
+            out.writeUTF(id);
+        }
+    }
+
+    /**
+     * @return the IDs written by {@link #writeIDs}.
+     */
+    static List<String> readIDs(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i += 1) {
+            ids.add(in.readUTF());
+        }
+        return ids;
+    }
+}
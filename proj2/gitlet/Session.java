@@ -0,0 +1,214 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/**
+ * The mutable metadata files of the local repository, HEAD, the stage, and the branch refs,
+ * as seen by the running command. Reads are cached and writes are held back until the command
+ * ends, so a command that updates the stage or a branch several times writes it once, and
+ * every file it changed is written together at the end, through the {@link Journal}.
+ * New commits are written the same way, so a commit and the branch moved to it are saved
+ * together, and the indexes of commits are only updated once the journal is applied.
+ * Lines added to logs such as reflogs are held back the same way, and journaled by
+ * themselves, so a command does not rewrite the whole log.
+ * Blobs are written directly, before any commit refers to them.
+ *
+ * Other processes may change the same files while the command runs. Reading takes no lock,
+ * since files are replaced whole; instead, the command remembers what it read, and when it
+ * writes it takes the {@link Locks} of the files it changed and checks that each of them
+ * still holds what it read. If another process changed one in between, nothing is written
+ * and the command fails, so no update is lost; commands changing different files, such as
+ * commits on different branches, never wait for each other.
+ *
+ * Normally the cache is dropped after each command, since other processes may change the
+ * files in between. A batch of commands keeps the cache from one command to the next.
+ */
+public class Session {
+    /** The contents of files read or written so far; null for a deleted file. */
+    private static final Map<File, byte[]> FILES = new HashMap<>();
+    /** The contents of the files on disk when first read; null for a missing file. */
+    private static final Map<File, byte[]> BASE = new HashMap<>();
+    /** The files written or deleted since the last flush, in order. */
+    private static final Set<File> CHANGED = new LinkedHashSet<>();
+    /** The bytes to add at the end of files since the last flush. */
+    private static final Map<File, byte[]> APPENDED = new LinkedHashMap<>();
+    /** Whether the cache is kept between commands. */
+    private static boolean keepCache = false;
+
+    /**
+     * @return the contents of FILE as this command sees it.
+     * Throws IllegalArgumentException if it does not exist.
+     */
+    public static byte[] read(File file) {
+        if (FILES.containsKey(file)) {
+            byte[] contents = FILES.get(file);
+            if (contents == null) {
+                throw new IllegalArgumentException("must be a normal file");
+            }
+            return contents;
+        }
+        byte[] contents = readContents(file);
+        FILES.put(file, contents);
+        if (!isObject(file)) {
+            BASE.put(file, contents);
+        }
+        return contents;
+    }
+
+    /**
+     * @return true if FILE exists as this command sees it.
+     */
+    public static boolean exists(File file) {
+        if (FILES.containsKey(file)) {
+            return FILES.get(file) != null;
+        }
+        if (file.isFile()) {
+            return true;
+        }
+        if (!isObject(file)) {
+            FILES.put(file, null);
+            BASE.put(file, null);
+        }
+        return false;
+    }
+
+    /**
+     * Replace the contents of FILE when the command ends.
+     */
+    public static void write(File file, byte[] contents) {
+        FILES.put(file, contents);
+        CHANGED.add(file);
+    }
+
+    /**
+     * Delete FILE when the command ends.
+     */
+    public static void delete(File file) {
+        FILES.put(file, null);
+        CHANGED.add(file);
+        APPENDED.remove(file);
+    }
+
+    /**
+     * Add BYTES at the end of FILE, creating it if needed, when the command ends.
+     * The file is not read, and other reads of it do not see the bytes.
+     */
+    public static void append(File file, byte[] bytes) {
+        byte[] pending = APPENDED.getOrDefault(file, new byte[0]);
+        byte[] joined = Arrays.copyOf(pending, pending.length + bytes.length);
+        System.arraycopy(bytes, 0, joined, pending.length, bytes.length);
+        APPENDED.put(file, joined);
+    }
+
+    /**
+     * @return the names of the plain files in DIR as this command sees them, in
+     * lexicographic order, or null if DIR is not a directory.
+     */
+    public static List<String> filenamesIn(File dir) {
+        List<String> onDisk = plainFilenamesIn(dir);
+        if (onDisk == null) {
+            return null;
+        }
+        Set<String> names = new TreeSet<>(onDisk);
+        for (File file : CHANGED) {
+            if (dir.equals(file.getParentFile())) {
+                if (FILES.get(file) == null) {
+                    names.remove(file.getName());
+                } else {
+                    names.add(file.getName());
+                }
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    /**
+     * Write every file changed by the command through the journal, so that either all of
+     * them or none are changed if the process dies, and forget the files read unless the cache
+     * is kept between commands. Called when each command ends.
+     * Fails without writing anything if another process changed one of the files since this
+     * command read it.
+     */
+    public static void flush() {
+        try {
+            if (!CHANGED.isEmpty() || !APPENDED.isEmpty()) {
+                Map<File, byte[]> changes = new LinkedHashMap<>();
+                for (File file : CHANGED) {
+                    changes.put(file, FILES.get(file));
+                }
+                Map<File, byte[]> appends = new LinkedHashMap<>(APPENDED);
+                CHANGED.clear();
+                APPENDED.clear();
+                Set<File> files = new TreeSet<>(changes.keySet());
+                files.addAll(appends.keySet());
+                lockAndCheck(files);
+                Journal.commit(changes, appends);
+                BASE.putAll(changes);
+                BASE.keySet().removeIf(Session::isObject);
+            }
+        } finally {
+            Locks.releaseAll();
+            if (!keepCache) {
+                FILES.clear();
+                BASE.clear();
+            }
+        }
+    }
+
+    /**
+     * Lock the metadata files among FILES, in the order of their paths, and check that each
+     * one this command read is unchanged on disk.
+     */
+    private static void lockAndCheck(Set<File> files) {
+        Set<File> metadata = new TreeSet<>();
+        for (File file : files) {
+            if (!isObject(file)) {
+                metadata.add(file);
+            }
+        }
+        for (File file : metadata) {
+            Locks.acquire(file);
+        }
+        Journal.recover();
+        for (File file : metadata) {
+            if (BASE.containsKey(file)) {
+                byte[] onDisk = file.isFile() ? readContents(file) : null;
+                if (!Arrays.equals(onDisk, BASE.get(file))) {
+                    FILES.clear();
+                    BASE.clear();
+                    exitWithError("Another gitlet process changed the repository; "
+                                  + "no changes were made.");
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if FILE is an object, which is never rewritten and needs no lock.
+     */
+    static boolean isObject(File file) {
+        return file.toPath().startsWith(Commit.COMMIT_DIR.toPath());
+    }
+
+    /**
+     * Keep the cache between commands, or stop keeping it and forget its contents.
+     */
+    public static void keepCache(boolean keep) {
+        keepCache = keep;
+        if (!keep) {
+            FILES.clear();
+            BASE.clear();
+        }
+    }
+}
@@ -8,6 +8,8 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 import static gitlet.Repository.*;
 import static gitlet.Utils.*;
@@ -16,6 +18,12 @@ import static gitlet.Utils.*;
  * Represents the Staging Area of Gitlet version control system.
  */
 public class Stage implements Serializable {
+    /**
+     * Pinned to the value Java computed for the original class, so that stage files saved
+     * by earlier versions stay readable as methods are added.
+     */
+    private static final long serialVersionUID = 5161613401289528326L;
+
     /** The file for staging area under the .gitlet directory. */
     public static final File STAGE_FILE = join(GITLET_DIR, "stage");
 
@@ -31,13 +39,21 @@ public class Stage implements Serializable {
     public Stage() {
         this.addition = new HashMap<>();
         this.removal = new HashSet<>();
-        if (STAGE_FILE.exists()) {
+        if (Session.exists(STAGE_FILE)) {
             Stage prevStage = readFromStage();
             this.addition.putAll(prevStage.stageMap());
             this.removal.addAll(prevStage.removeFiles());
         }
     }
 
+    /**
+     * A staging area read back from its encoded form.
+     */
+    private Stage(Map<String, String> addition, Set<String> removal) {
+        this.addition = addition;
+        this.removal = removal;
+    }
+
     /**
      * @return the file mapping of the current staging area.
      */
@@ -62,18 +78,32 @@ public class Stage implements Serializable {
      * @param filename as specified by the command line argument.
      */
     public void addToStagingArea(String filename) {
+        WorkingTreeIndex index = new WorkingTreeIndex();
+        addToStagingArea(filename, index);
+        index.write();
+    }
+
+    /**
+     * Add a file to the staging area as {@link #addToStagingArea(String)} does, hashing it
+     * through INDEX, which the caller writes once it has added all its files.
+     */
+    public void addToStagingArea(String filename, WorkingTreeIndex index) {
         File newFile = findFile(filename);
-        Blob fileBlob = new Blob(newFile);
+        String newBlobID = index.blobID(filename);  // only read if it changed since last hashed
 
         // if the current file version is identical to the most recent commit
         Commit currCommit = Branch.readRecentCommit(Head.getHeadState());
         String oldBlobID = currCommit.commitMapping().get(filename);
-        String newBlobID = fileBlob.blobHashValue();
         if (Objects.equals(oldBlobID, newBlobID)) {
             addition.remove(filename);
-        } else {
-            addition.put(filename, fileBlob.blobHashValue()); // stage the file for addition
-            fileBlob.saveBlob();  // save a snapshot
+        } else if (!newBlobID.equals(addition.get(filename)) || !Blob.checkBlobExists(newBlobID)) {
+            if (newFile.length() > Blob.streamThreshold()) {
+                addition.put(filename, Blob.saveFile(newFile));  // streamed, never in memory
+            } else {
+                Blob fileBlob = new Blob(newFile);
+                addition.put(filename, fileBlob.blobHashValue()); // stage the file for addition
+                fileBlob.saveBlob(oldBlobID);  // save a snapshot, as a delta if previously tracked
+            }
         }
         // In either case, update the stage file
         removal.remove(filename);  // no longer staged for removal
@@ -112,14 +142,49 @@ public class Stage implements Serializable {
      * Read the previous staging area from the saved stage file.
      */
     public static Stage readFromStage() {
-        return readObject(STAGE_FILE, Stage.class);
+        return decode(Session.read(STAGE_FILE));
     }
 
     /**
      * Save the current staging area into the stage file.
      */
     protected void writeToStage() {
-        writeObject(STAGE_FILE, this);
+        Session.write(STAGE_FILE, encode());
+    }
+
+    /**
+     * @return this staging area in the binary encoding of {@link Codec}:
+     * the files staged for addition with their blobs, then the files staged for removal.
+     */
+    public byte[] encode() {
+        Codec.Writer out = new Codec.Writer(Codec.STAGE);
+        out.varint(addition.size());
+        for (Map.Entry<String, String> entry : new TreeMap<>(addition).entrySet()) {
+            out.string(entry.getKey()).id(entry.getValue());
+        }
+        out.varint(removal.size());
+        new TreeSet<>(removal).forEach(out::string);
+        return out.toByteArray();
+    }
+
+    /**
+     * @return the staging area saved as DATA, either encoded or Java-serialized
+     * by an earlier version.
+     */
+    public static Stage decode(byte[] data) {
+        if (Codec.isLegacy(data)) {
+            return deserialize(data, Stage.class);
+        }
+        Codec.Reader in = new Codec.Reader(data, Codec.STAGE);
+        Map<String, String> addition = new HashMap<>();
+        for (int i = in.count(); i > 0; i -= 1) {
+            addition.put(in.string(), in.id());
+        }
+        Set<String> removal = new HashSet<>();
+        for (int i = in.count(); i > 0; i -= 1) {
+            removal.add(in.string());
+        }
+        return new Stage(addition, removal);
     }
 
     /**
@@ -0,0 +1,153 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.stream.IntStream;
+
+import static gitlet.Repository.GITLET_DIR;
+import static gitlet.Utils.*;
+
+/**
+ * The commits of the commit graph in the order `global-log` prints them: newest first,
+ * and commits made at the same time by their IDs. The index file holds the graph indexes
+ * of the first `covered` commits of the graph in that order. Newer commits are sorted in
+ * memory and merged in while reading, until there are MERGE_LIMIT of them, when the file
+ * is rewritten with them.
+ */
+public class TimeIndex {
+    /** The time index under the .gitlet directory. */
+    public static final File INDEX_FILE = join(GITLET_DIR, "time-index");
+
+    /** Magic number at the start of the index file. */
+    private static final int MAGIC = 0x544d4931;  // "TMI1"
+    /** Length of the header: magic and covered commits. */
+    private static final int HEADER = 2 * Integer.BYTES;
+    /** Number of commits past the index that triggers a rewrite. */
+    private static final int MERGE_LIMIT = 1024;
+
+    /**
+     * Rewrite the index once enough commits were added to the graph since it was written.
+     * Called after each new commit. The index is checked again holding its lock, so that
+     * commands committing at the same time do not both rewrite it.
+     */
+    public static void update() {
+        CommitGraph graph = CommitGraph.open();
+        if (graph.size() - covered(open()) >= MERGE_LIMIT) {
+            Locks.whileHolding(INDEX_FILE, () -> {
+                if (graph.size() - covered(open()) >= MERGE_LIMIT) {
+                    write(graph);
+                }
+            });
+        }
+    }
+
+    /**
+     * Rewrite the index with all commits in the graph.
+     */
+    public static void rebuild() {
+        Locks.whileHolding(INDEX_FILE, () -> {
+            INDEX_FILE.delete();
+            write(CommitGraph.open());
+        });
+    }
+
+    /**
+     * @return the graph indexes of all commits in the graph, newest first, read lazily.
+     */
+    public static PrimitiveIterator.OfInt newestFirst(CommitGraph graph) {
+        ByteBuffer index = open();
+        int covered = covered(index);
+        Comparator<Integer> order = order(graph);
+        int[] recent = IntStream.range(covered, graph.size()).boxed()
+                                .sorted(order).mapToInt(Integer::intValue).toArray();
+        return new PrimitiveIterator.OfInt() {
+            /** Position of the next commit in the index file and in RECENT. */
+            private int nextIndexed = 0;
+            private int nextRecent = 0;
+
+            @Override
+            public boolean hasNext() {
+                return nextIndexed < covered || nextRecent < recent.length;
+            }
+
+            @Override
+            public int nextInt() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                if (nextRecent == recent.length) {
+                    return indexed(nextIndexed++);
+                }
+                if (nextIndexed == covered
+                        || order.compare(recent[nextRecent], indexed(nextIndexed)) < 0) {
+                    return recent[nextRecent++];
+                }
+                return indexed(nextIndexed++);
+            }
+
+            /**
+             * @return the graph index at POSITION of the index file.
+             */
+            private int indexed(int position) {
+                return index.getInt(HEADER + position * Integer.BYTES);
+            }
+        };
+    }
+
+    /**
+     * @return the order of global-log on graph indexes: newest first, then by ID.
+     */
+    private static Comparator<Integer> order(CommitGraph graph) {
+        return Comparator.comparingLong(graph::timestamp).reversed()
+                         .thenComparing(graph::id);
+    }
+
+    /**
+     * Write the index covering all commits in the graph, merging the commits past the
+     * current index into it.
+     */
+    private static void write(CommitGraph graph) {
+        try {
+            File temp = File.createTempFile("time-index", ".tmp", GITLET_DIR);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(temp.toPath())))) {
+                out.writeInt(MAGIC);
+                out.writeInt(graph.size());
+                PrimitiveIterator.OfInt all = newestFirst(graph);
+                while (all.hasNext()) {
+                    out.writeInt(all.nextInt());
+                }
+            }
+            Files.move(temp.toPath(), INDEX_FILE.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * @return the mapped index file, or null if there is none or it is not a valid index.
+     */
+    private static ByteBuffer open() {
+        if (!INDEX_FILE.isFile() || INDEX_FILE.length() < HEADER) {
+            return null;
+        }
+        ByteBuffer index = mapFile(INDEX_FILE);
+        return (index.getInt(0) == MAGIC) ? index : null;
+    }
+
+    /**
+     * @return the number of graph commits covered by the mapped INDEX, 0 if there is none.
+     */
+    private static int covered(ByteBuffer index) {
+        return (index == null) ? 0 : index.getInt(Integer.BYTES);
+    }
+}
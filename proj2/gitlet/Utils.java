@@ -1,6 +1,7 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -9,14 +10,20 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Formatter;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 
 /**
@@ -28,33 +35,26 @@ import java.util.List;
  */
 class Utils {
 
-    /** The length of a complete SHA-1 UID as a hexadecimal numeral. */
-    static final int UID_LENGTH = 40;
+    /** The hexadecimal digits, indexed by their value. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
 
     /* SHA-1 HASH VALUES. */
 
-    /** Returns the SHA-1 hash of the concatenation of VALS, which may
-     *  be any mixture of byte arrays and Strings. */
+    /** Returns the hash of the concatenation of VALS, which may
+     *  be any mixture of byte arrays and Strings. The hash is SHA-1
+     *  unless the repository uses another algorithm; see ObjectHash. */
     static String sha1(Object... vals) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (Object val : vals) {
-                if (val instanceof byte[]) {
-                    md.update((byte[]) val);
-                } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
-                } else {
-                    throw new IllegalArgumentException("improper type to sha1");
-                }
-            }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
+        MessageDigest md = ObjectHash.digest();
+        for (Object val : vals) {
+            if (val instanceof byte[]) {
+                md.update((byte[]) val);
+            } else if (val instanceof String) {
+                md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+            } else {
+                throw new IllegalArgumentException("improper type to sha1");
             }
-            return result.toString();
-        } catch (NoSuchAlgorithmException excp) {
-            throw new IllegalArgumentException("System does not support SHA-1");
         }
+        return bytesToHex(md.digest());
     }
 
     /** Returns the SHA-1 hash of the concatenation of the strings in
@@ -63,6 +63,31 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Returns the bytes denoted by the hexadecimal numeral HEX, which
+     *  must have an even number of digits. */
+    static byte[] hexToBytes(String hex) {
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new NumberFormatException("not a hexadecimal numeral: " + hex);
+            }
+            result[i] = (byte) (high << 4 | low);
+        }
+        return result;
+    }
+
+    /** Returns BYTES as a lower-case hexadecimal numeral. */
+    static String bytesToHex(byte[] bytes) {
+        char[] result = new char[2 * bytes.length];
+        for (int i = 0; i < bytes.length; i += 1) {
+            result[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            result[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(result);
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -135,6 +160,69 @@ class Utils {
         }
     }
 
+    /** Write CONTENTS to FILE through a temporary file in TEMPDIR, which must
+     *  be on the same file system, moved over FILE in one step, so that no
+     *  reader ever sees FILE partly written.  The temporary file is synced to
+     *  disk before the move, so a crash never leaves FILE empty; sync the
+     *  directory of FILE with syncDirectory to make the move itself durable.
+     *  Throws IllegalArgumentException in case of problems. */
+    static void writeAtomically(File file, byte[] contents, File tempDir) {
+        try {
+            File temp = File.createTempFile("write", ".tmp", tempDir);
+            try (FileChannel channel = FileChannel.open(temp.toPath(),
+                    StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(contents);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the settings saved in FILE as `key = value` lines, sorted by
+     *  key, or none if FILE does not exist. */
+    static Map<String, String> readSettings(File file) {
+        Map<String, String> settings = new TreeMap<>();
+        if (file.isFile()) {
+            for (String line : readContentsAsString(file).split("\n")) {
+                int split = line.indexOf('=');
+                if (split > 0) {
+                    settings.put(line.substring(0, split).trim(),
+                                 line.substring(split + 1).trim());
+                }
+            }
+        }
+        return settings;
+    }
+
+    /** Save SETTINGS to FILE as `key = value` lines with writeAtomically,
+     *  through a temporary file next to FILE.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static void writeSettings(File file, Map<String, String> settings) {
+        StringBuilder content = new StringBuilder();
+        for (Map.Entry<String, String> entry : settings.entrySet()) {
+            content.append(entry.getKey()).append(" = ").append(entry.getValue()).append("\n");
+        }
+        writeAtomically(file, content.toString().getBytes(StandardCharsets.UTF_8),
+                        file.getParentFile());
+    }
+
+    /** Sync the entries of directory DIR to disk, so that the files created,
+     *  renamed, or deleted in it stay so after a crash.  Does nothing on
+     *  systems where a directory cannot be opened. */
+    static void syncDirectory(File dir) {
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            // directories cannot be opened on some systems, which sync them on their own
+        }
+    }
+
     /** Return an object of type T read from FILE, casting it to EXPECTED CLASS.
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
@@ -150,6 +238,18 @@ class Utils {
         }
     }
 
+    /** Return an object of type T deserialized from BYTES, casting it to
+     *  EXPECTED CLASS.  Throws IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        try (ObjectInputStream in =
+                 new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return expectedClass.cast(in.readObject());
+        } catch (IOException | ClassCastException | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /** Write OBJ to FILE. */
     static void writeObject(File file, Serializable obj) {
         writeContents(file, serialize(obj));
@@ -186,6 +286,62 @@ class Utils {
         return plainFilenamesIn(new File(dir));
     }
 
+    /** Return the file holding the object named ID in the sharded
+     *  directory DIR: a file named by all but the first two digits of
+     *  ID, in a subdirectory named by those two digits. */
+    static File shardFile(File dir, String id) {
+        if (id.length() <= 2) {
+            return join(dir, id);
+        }
+        return join(dir, id.substring(0, 2), id.substring(2));
+    }
+
+    /** Returns the IDs of all objects in the sharded directory DIR, in
+     *  lexicographic order.  Returns an empty list if DIR does not
+     *  denote a directory. */
+    static List<String> shardedIDsIn(File dir) {
+        List<String> ids = new ArrayList<>();
+        String[] shards = dir.list((parent, name) -> name.length() == 2
+                                   && new File(parent, name).isDirectory());
+        if (shards == null) {
+            return ids;
+        }
+        Arrays.sort(shards);
+        for (String shard : shards) {
+            List<String> names = plainFilenamesIn(join(dir, shard));
+            if (names != null) {
+                for (String name : names) {
+                    ids.add(shard + name);
+                }
+            }
+        }
+        return ids;
+    }
+
+    /** Return the path of FILE under DIR, with forward slashes.  Throws
+     *  IllegalArgumentException if FILE is not under DIR. */
+    static String relativePath(File dir, File file) {
+        List<String> parts = new ArrayList<>();
+        for (File f = file; !f.equals(dir); f = f.getParentFile()) {
+            if (f.getParentFile() == null) {
+                throw new IllegalArgumentException(file + " is not under " + dir);
+            }
+            parts.add(0, f.getName());
+        }
+        return String.join("/", parts);
+    }
+
+    /** Return the entire contents of FILE mapped read-only into memory.
+     *  Throws IllegalArgumentException in case of problems. */
+    static MappedByteBuffer mapFile(File file) {
+        try (FileChannel channel =
+                 FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /* OTHER FILE UTILITIES */
 
     /** Return the concatenation of FIRST and OTHERS into a File designator,
@@ -236,11 +392,11 @@ class Utils {
     }
 
     /**
-     * Print out error message and exit program with error code 0.
+     * Stop the current command with an error message. Main prints the message and
+     * the program exits with error code 0, as for any other command.
      * @param msg the error message to be displayed.
      */
     static void exitWithError(String msg) {
-        message(msg);
-        System.exit(0);
+        throw new GitletException(msg);
     }
 }
@@ -0,0 +1,248 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/**
+ * A cache of the blob IDs of the files in the working directory, keyed by their stat data.
+ * Each entry records the size, modification time in nanoseconds, and inode of a file as they
+ * were when its content was last hashed. As long as all three are unchanged, the file is
+ * assumed unchanged and its cached blob ID is used without reading it.
+ *
+ * A file modified within the timestamp resolution of the moment the index was written could
+ * change again without its stat data changing. Such racy entries, whose modification time is
+ * not older than the index file itself, are never trusted: they are hashed again, and the index
+ * is rewritten so that they stop being racy.
+ *
+ * The index is written outside the {@link Journal}, replaced whole by an atomic rename. Since
+ * every entry is checked against the stat data of its file, an index left out of date by a
+ * command that died only costs hashing the files again.
+ */
+public class WorkingTreeIndex {
+    /** The index file under the .gitlet directory. */
+    public static final File INDEX_FILE = join(GITLET_DIR, "index");
+
+    /** Magic number at the start of the index file. */
+    private static final int MAGIC = 0x57544931;  // "WTI1"
+
+    /** Whether the file system supports the unix attribute view, checked on first use. */
+    private static Boolean unixAttributes;
+
+    /** The cached entries, keyed by file name. */
+    private final Map<String, Entry> entries = new HashMap<>();
+    /** Modification time of the index file in nanoseconds, or Long.MIN_VALUE if there is none. */
+    private final long indexTime;
+    /** Whether the entries changed since the index was read. */
+    private boolean changed;
+
+    /**
+     * Read the index of the current working directory. A missing or unreadable index
+     * starts out empty, since every entry can be recomputed from the files.
+     */
+    public WorkingTreeIndex() {
+        long time = Long.MIN_VALUE;
+        if (INDEX_FILE.isFile()) {
+            try {
+                time = Files.getLastModifiedTime(INDEX_FILE.toPath()).to(TimeUnit.NANOSECONDS);
+                readEntries(readContents(INDEX_FILE));
+            } catch (IOException | IllegalArgumentException excp) {
+                entries.clear();
+            }
+        }
+        this.indexTime = time;
+    }
+
+    /**
+     * @return the blob ID of the given file in the working directory, hashing its content
+     * only if its stat data changed since it was last hashed.
+     * @param filename the name of an existing file in the working directory.
+     */
+    public String blobID(String filename) {
+        File file = join(CWD, filename);
+        Entry current = stat(file);
+        Entry cached = entries.get(filename);
+        if (cached != null && cached.sameStat(current) && cached.mtime < indexTime) {
+            return cached.blobID;
+        }
+        // stat before reading, so a change made while hashing shows up next time
+        current.blobID = ContentHasher.hash(file);
+        entries.put(filename, current);
+        changed = true;
+        return current.blobID;
+    }
+
+    /**
+     * @return a map from each of the given files in the working directory to its blob ID.
+     * Files whose stat data changed are hashed in parallel.
+     * @param filenames the names of existing files in the working directory.
+     */
+    public Map<String, String> blobIDs(List<String> filenames) {
+        Map<String, String> result = new HashMap<>();
+        List<String> staleNames = new ArrayList<>();
+        List<Entry> staleEntries = new ArrayList<>();
+        List<File> staleFiles = new ArrayList<>();
+        for (String filename : filenames) {
+            File file = join(CWD, filename);
+            Entry current = stat(file);
+            Entry cached = entries.get(filename);
+            if (cached != null && cached.sameStat(current) && cached.mtime < indexTime) {
+                result.put(filename, cached.blobID);
+            } else {
+                staleNames.add(filename);
+                staleEntries.add(current);
+                staleFiles.add(file);
+            }
+        }
+        String[] hashed = ContentHasher.hashAll(staleFiles);
+        for (int i = 0; i < hashed.length; i += 1) {
+            Entry current = staleEntries.get(i);
+            current.blobID = hashed[i];
+            entries.put(staleNames.get(i), current);
+            result.put(staleNames.get(i), hashed[i]);
+            changed = true;
+        }
+        return result;
+    }
+
+    /**
+     * Record the blob ID of a file that was just written from a saved blob.
+     */
+    public void record(String filename, String blobID) {
+        Entry current = stat(join(CWD, filename));
+        current.blobID = blobID;
+        entries.put(filename, current);
+        changed = true;
+    }
+
+    /**
+     * Forget the entries of files that are no longer in the working directory.
+     */
+    public void retainAll(Collection<String> filenames) {
+        Set<String> keep = new HashSet<>(filenames);
+        changed |= entries.keySet().removeIf(name -> !keep.contains(name));
+    }
+
+    /**
+     * Save the index if any entry changed since it was read.
+     */
+    public void write() {
+        if (!changed) {
+            return;
+        }
+        try {
+            File temp = File.createTempFile("index", ".tmp", GITLET_DIR);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(temp.toPath())))) {
+                out.writeInt(MAGIC);
+                out.writeInt(entries.size());
+                for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                    Entry entry = e.getValue();
+                    out.writeUTF(e.getKey());
+                    out.writeLong(entry.size);
+                    out.writeLong(entry.mtime);
+                    out.writeLong(entry.inode);
+                    out.write(hexToBytes(entry.blobID));
+                }
+            }
+            Files.move(temp.toPath(), INDEX_FILE.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        changed = false;
+    }
+
+    /**
+     * Parse the entries of an index file.
+     */
+    private void readEntries(byte[] contents) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(contents));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not an index file");
+        }
+        int count = in.readInt();
+        byte[] id = new byte[ObjectHash.ID_BYTES];
+        for (int i = 0; i < count; i += 1) {
+            String name = in.readUTF();
+            Entry entry = new Entry(in.readLong(), in.readLong(), in.readLong());
+            in.readFully(id);
+            entry.blobID = bytesToHex(id);
+            entries.put(name, entry);
+        }
+    }
+
+    /**
+     * @return the stat data of FILE, with no blob ID yet.
+     */
+    private static Entry stat(File file) {
+        Path path = file.toPath();
+        try {
+            if (unixAttributes == null || unixAttributes) {
+                try {
+                    Map<String, Object> attrs =
+                            Files.readAttributes(path, "unix:size,lastModifiedTime,ino");
+                    unixAttributes = true;
+                    return new Entry((Long) attrs.get("size"),
+                                     ((FileTime) attrs.get("lastModifiedTime"))
+                                             .to(TimeUnit.NANOSECONDS),
+                                     (Long) attrs.get("ino"));
+                } catch (UnsupportedOperationException excp) {
+                    unixAttributes = false;
+                }
+            }
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            Object key = attrs.fileKey();
+            return new Entry(attrs.size(), attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                             (key == null) ? 0 : key.hashCode());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * The stat data and blob ID of one file.
+     */
+    private static class Entry {
+        /** Size of the file in bytes. */
+        private final long size;
+        /** Modification time of the file in nanoseconds. */
+        private final long mtime;
+        /** Inode number of the file, or a hash of its file key where there are no inodes. */
+        private final long inode;
+        /** The blob ID of the file content. */
+        private String blobID;
+
+        Entry(long size, long mtime, long inode) {
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+        }
+
+        /**
+         * @return true if OTHER has the same stat data as this entry.
+         */
+        boolean sameStat(Entry other) {
+            return size == other.size && mtime == other.mtime && inode == other.inode;
+        }
+    }
+}